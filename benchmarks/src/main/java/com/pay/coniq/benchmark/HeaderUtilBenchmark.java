@@ -0,0 +1,43 @@
+package com.pay.coniq.benchmark;
+
+import com.pay.coniq.web.rest.util.HeaderUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link HeaderUtil} alert headers as sent with every create, update and failed request
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderUtilBenchmark {
+
+    private static final String APPLICATION_NAME = "storeApp";
+
+    private static final String ENTITY_NAME = "Stock";
+
+    @Benchmark
+    public HttpHeaders entityCreationAlert() {
+        return HeaderUtil.createEntityCreationAlert(APPLICATION_NAME, true, ENTITY_NAME, "1001");
+    }
+
+    @Benchmark
+    public HttpHeaders entityUpdateAlert() {
+        return HeaderUtil.createEntityUpdateAlert(APPLICATION_NAME, true, ENTITY_NAME, "1001");
+    }
+
+    @Benchmark
+    public HttpHeaders failureAlert() {
+        return HeaderUtil.createFailureAlert(APPLICATION_NAME, true, ENTITY_NAME, "idexists", "A new stock cannot already have an ID");
+    }
+}
@@ -0,0 +1,55 @@
+package com.pay.coniq.benchmark;
+
+import com.pay.coniq.service.dto.StockDTO;
+import com.pay.coniq.web.rest.util.PaginationUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PaginationUtil} Link and X-Total-Count headers of a middle page, the uri builder is created per call
+ * like the resource does from the current request
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaginationUtilBenchmark {
+
+    private static final String URL = "http://localhost:8080/api/stocks?page=3&size=100&sort=name,desc";
+
+    private Page<StockDTO> page;
+
+    @Setup
+    public void setup() {
+        page = new PageImpl<>(StockFixtures.stockDTOs(StockFixtures.PAGE_SIZE),
+                PageRequest.of(3, StockFixtures.PAGE_SIZE, Sort.by(Sort.Direction.DESC, "name")), 100_000);
+    }
+
+    @Benchmark
+    public HttpHeaders paginationHeaders() {
+        return PaginationUtil.generatePaginationHttpHeaders(UriComponentsBuilder.fromHttpUrl(URL), page);
+    }
+
+    @Benchmark
+    public HttpHeaders cursorPaginationHeaders() {
+        return PaginationUtil.generateCursorPaginationHttpHeaders(UriComponentsBuilder.fromHttpUrl(URL), "aWQ6MTAw");
+    }
+}
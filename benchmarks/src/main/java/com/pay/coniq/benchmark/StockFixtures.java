@@ -0,0 +1,56 @@
+package com.pay.coniq.benchmark;
+
+import com.pay.coniq.domain.Stock;
+import com.pay.coniq.service.dto.StockDTO;
+import com.pay.coniq.service.mapper.StockMapperImpl;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * the same generated stocks for every benchmark, so that runs of different commits stay comparable
+ */
+final class StockFixtures {
+
+    static final int PAGE_SIZE = 100;
+
+    static final String NAME_PREFIX = "jmh-";
+
+    /**
+     * fixed instead of now, the date format depends on it
+     */
+    private static final long CREATED = 1_600_000_000_000L;
+
+    private StockFixtures() {
+    }
+
+    static List<Stock> stocks(int count) {
+        List<Stock> stocks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Stock stock = new Stock().name(NAME_PREFIX + i).currentPrice(BigDecimal.valueOf(i * 7L + 100, 2));
+            stock.setId((long) i + 1);
+            stock.setVersion(0L);
+            stock.setCreatedDate(new Timestamp(CREATED + i * 1000L));
+            stock.setModifiedDate(new Timestamp(CREATED + i * 2000L));
+            stocks.add(stock);
+        }
+        return stocks;
+    }
+
+    static List<StockDTO> stockDTOs(int count) {
+        return new StockMapperImpl().toDto(stocks(count));
+    }
+
+    /**
+     * new stocks without id or dates, ready to be saved
+     */
+    static List<StockDTO> newStockDTOs(int count) {
+        List<StockDTO> stocks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            stocks.add(new StockDTO().name(NAME_PREFIX + i).currentPrice(BigDecimal.valueOf(i * 7L + 100, 2)));
+        }
+        return stocks;
+    }
+}
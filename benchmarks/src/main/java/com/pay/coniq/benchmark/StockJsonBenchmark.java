@@ -0,0 +1,62 @@
+package com.pay.coniq.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.pay.coniq.config.JacksonConfig;
+import com.pay.coniq.service.dto.StockDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.util.NullOutputStream;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization of a list of {@link StockDTO} with the object mapper configured by {@link JacksonConfig},
+ * written to a discarding stream so only serialization is measured
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StockJsonBenchmark {
+
+    @Param({"100", "10000"})
+    private int size;
+
+    private ObjectWriter writer;
+
+    private List<StockDTO> stocks;
+
+    private final OutputStream out = new NullOutputStream();
+
+    @Setup
+    public void setup() {
+        Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.json();
+        new JacksonConfig().problemObjectMapperModules().customize(builder);
+        ObjectMapper objectMapper = builder.build();
+        writer = objectMapper.writerFor(objectMapper.getTypeFactory().constructCollectionType(List.class, StockDTO.class))
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        stocks = StockFixtures.stockDTOs(size);
+    }
+
+    @Benchmark
+    public void serializeList() throws IOException {
+        writer.writeValue(out, stocks);
+    }
+}
@@ -0,0 +1,61 @@
+package com.pay.coniq.benchmark;
+
+import com.pay.coniq.domain.Stock;
+import com.pay.coniq.service.dto.StockDTO;
+import com.pay.coniq.service.mapper.StockMapper;
+import com.pay.coniq.service.mapper.StockMapperImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link StockMapper} entity to DTO and back, one stock and a page of {@link StockFixtures#PAGE_SIZE}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StockMapperBenchmark {
+
+    private final StockMapper stockMapper = new StockMapperImpl();
+
+    private Stock stock;
+
+    private StockDTO stockDTO;
+
+    private List<Stock> page;
+
+    @Setup
+    public void setup() {
+        page = StockFixtures.stocks(StockFixtures.PAGE_SIZE);
+        stock = page.get(0);
+        stockDTO = stockMapper.toDto(stock);
+    }
+
+    @Benchmark
+    public StockDTO toDto() {
+        return stockMapper.toDto(stock);
+    }
+
+    @Benchmark
+    public Stock toEntity() {
+        return stockMapper.toEntity(stockDTO);
+    }
+
+    @Benchmark
+    public List<StockDTO> toDtoPage() {
+        return stockMapper.toDto(page);
+    }
+}
@@ -0,0 +1,112 @@
+package com.pay.coniq.benchmark;
+
+import com.pay.coniq.StoreApp;
+import com.pay.coniq.service.StockCache;
+import com.pay.coniq.service.StockService;
+import com.pay.coniq.service.dto.StockCriteria;
+import com.pay.coniq.service.dto.StockDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link StockService} reads and price updates against the embedded H2 database of the dev profile,
+ * seeded with {@link #ROWS} stocks. every update commits and writes its audit row. single stock reads are
+ * measured once as {@link StockCache} hits and once as misses which read the database
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StockServiceBenchmark {
+
+    private static final int ROWS = 10_000;
+
+    private ConfigurableApplicationContext context;
+
+    private StockService stockService;
+
+    private StockCache stockCache;
+
+    private Long[] ids;
+
+    private final StockCriteria criteria = new StockCriteria();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = new SpringApplicationBuilder(StoreApp.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.profiles.active=dev", "spring.main.banner-mode=off", "spring.h2.console.enabled=false",
+                        "logging.level.root=WARN")
+                .run();
+        stockService = context.getBean(StockService.class);
+        stockCache = context.getBean(StockCache.class);
+        List<StockDTO> stocks = stockService.saveAll(StockFixtures.newStockDTOs(ROWS));
+        ids = stocks.stream().map(StockDTO::getId).toArray(Long[]::new);
+        // every stock fits the default cache size of 10000
+        for (Long id : ids) {
+            stockService.findOne(id);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public StockDTO findOneCached() {
+        return stockService.findOne(randomId()).orElseThrow(IllegalStateException::new);
+    }
+
+    /**
+     * the stock is evicted first so every read misses the cache
+     */
+    @Benchmark
+    public StockDTO findOneUncached() {
+        Long id = randomId();
+        stockCache.evict(id, null);
+        return stockService.findOne(id).orElseThrow(IllegalStateException::new);
+    }
+
+    @Benchmark
+    public Page<StockDTO> findPage() {
+        return stockService.findAll(criteria, randomPage(), null);
+    }
+
+    @Benchmark
+    public StockDTO updatePrice() {
+        return stockService.save(randomId(), BigDecimal.valueOf(ThreadLocalRandom.current().nextInt(1, 100_000), 2));
+    }
+
+    private Long randomId() {
+        return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    }
+
+    private Pageable randomPage() {
+        return PageRequest.of(ThreadLocalRandom.current().nextInt(ROWS / StockFixtures.PAGE_SIZE), StockFixtures.PAGE_SIZE, Sort.by("id"));
+    }
+}
@@ -4,9 +4,11 @@ package com.pay.coniq;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.data.jpa.repository.config.EnableJpaAuditing;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableJpaAuditing
+@EnableScheduling
 public class StoreApp {
     public static void main(String[] args) {
         SpringApplication.run(StoreApp.class, args);
@@ -0,0 +1,27 @@
+package com.pay.coniq.config;
+
+import org.hibernate.envers.boot.internal.EnversIntegrator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * store.audit.mode=sync (default) lets envers write stock_aud and revinfo inside the request transaction,
+ * store.audit.mode=async switches the envers listeners off and leaves audit writing to
+ * {@link com.pay.coniq.service.audit.AsyncAuditWriter}. The audit mappings stay registered
+ * either way so the envers tables and history queries keep working.
+ */
+@Configuration
+public class AuditConfiguration {
+
+    public static final String MODE_PROPERTY = "store.audit.mode";
+
+    public static final String MODE_ASYNC = "async";
+
+    @Bean
+    @ConditionalOnProperty(name = MODE_PROPERTY, havingValue = MODE_ASYNC)
+    public HibernatePropertiesCustomizer asyncAuditHibernateProperties() {
+        return properties -> properties.put(EnversIntegrator.AUTO_REGISTER, "false");
+    }
+}
@@ -1,6 +1,9 @@
 package com.pay.coniq.config;
 
+import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.pay.coniq.service.dto.StockDTO;
+import com.pay.coniq.web.rest.util.StockDTOSerializer;
 import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -15,7 +18,8 @@ public class JacksonConfig {
         return jacksonObjectMapperBuilder -> jacksonObjectMapperBuilder.modules(
                 new JavaTimeModule(),
                 new ProblemModule(),
-                new ConstraintViolationProblemModule()
+                new ConstraintViolationProblemModule(),
+                new SimpleModule("StockModule").addSerializer(StockDTO.class, new StockDTOSerializer())
         );
     }
 }
@@ -0,0 +1,77 @@
+package com.pay.coniq.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * times every public call into the stock services (store.service), the {@code @Repository} classes
+ * (store.repository) and the mappers (store.mapper), tagged with class, method and exception.
+ * {@link com.pay.coniq.repository.StockRepository} is timed by spring data as spring.data.repository.invocations.
+ * calls within a bean do not pass the proxy and are part of the caller's time
+ */
+@Aspect
+@Component
+public class MethodMetricsAspect {
+
+    private static final String NONE = "none";
+
+    private final MeterRegistry meterRegistry;
+
+    private final ConcurrentMap<Method, Timer> timers = new ConcurrentHashMap<>();
+
+    public MethodMetricsAspect(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Around("execution(public * com.pay.coniq.service.*Service.*(..))")
+    public Object timeService(ProceedingJoinPoint joinPoint) throws Throwable {
+        return time("store.service", joinPoint);
+    }
+
+    @Around("execution(public * *(..)) && @within(org.springframework.stereotype.Repository) && within(com.pay.coniq.repository..*)")
+    public Object timeRepository(ProceedingJoinPoint joinPoint) throws Throwable {
+        return time("store.repository", joinPoint);
+    }
+
+    @Around("execution(public * com.pay.coniq.service.mapper.*Mapper+.*(..))")
+    public Object timeMapper(ProceedingJoinPoint joinPoint) throws Throwable {
+        return time("store.mapper", joinPoint);
+    }
+
+    private Object time(String name, ProceedingJoinPoint joinPoint) throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        long start = System.nanoTime();
+        try {
+            Object result = joinPoint.proceed();
+            timers.computeIfAbsent(method, key -> timer(name, joinPoint, NONE))
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return result;
+        } catch (Throwable e) {
+            timer(name, joinPoint, e.getClass().getSimpleName()).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+    }
+
+    /**
+     * tagged with the target class, e.g. StockMapperImpl rather than the EntityMapper interface declaring toDto
+     */
+    private Timer timer(String name, ProceedingJoinPoint joinPoint, String exception) {
+        Class<?> targetClass = AopUtils.getTargetClass(joinPoint.getTarget());
+        return Timer.builder(name)
+                .tags("class", ClassUtils.getUserClass(targetClass).getSimpleName(),
+                        "method", joinPoint.getSignature().getName(), "exception", exception)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,54 @@
+package com.pay.coniq.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pay.coniq.repository.StatementStatisticsDataSource;
+import com.pay.coniq.web.rest.util.RequestMetricsFilter;
+import com.pay.coniq.web.rest.util.TimedJacksonHttpMessageConverter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import javax.sql.DataSource;
+
+/**
+ * metrics which split request latency into database, mapper and serialization time, next to the
+ * http.server.requests, hikaricp and hibernate metrics of spring boot. See {@link MethodMetricsAspect}
+ * for the service, repository and mapper timers.
+ */
+@Configuration
+public class MetricsConfiguration {
+
+    private static final String DATA_SOURCE_BEAN = "dataSource";
+
+    /**
+     * wraps the application data source, the pool or the replica routing on top of the pools, so that every
+     * statement counts in {@link com.pay.coniq.repository.StatementStatistics}, whether hibernate or a jdbc
+     * template runs it
+     */
+    @Bean
+    public static BeanPostProcessor statementStatisticsDataSourcePostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource && DATA_SOURCE_BEAN.equals(beanName)) {
+                    return new StatementStatisticsDataSource((DataSource) bean);
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Bean
+    public FilterRegistrationBean<RequestMetricsFilter> requestMetricsFilter(MeterRegistry meterRegistry) {
+        return new FilterRegistrationBean<>(new RequestMetricsFilter(meterRegistry));
+    }
+
+    @Bean
+    public MappingJackson2HttpMessageConverter mappingJackson2HttpMessageConverter(ObjectMapper objectMapper,
+                                                                                   MeterRegistry meterRegistry) {
+        return new TimedJacksonHttpMessageConverter(objectMapper, meterRegistry);
+    }
+}
@@ -0,0 +1,101 @@
+package com.pay.coniq.config;
+
+import com.pay.coniq.web.rest.util.ReadYourWritesFilter;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.orm.jpa.AbstractEntityManagerFactoryBean;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * read replicas, enabled by store.datasource.replicas[0].url. Read-only transactions go to the replicas, the
+ * spring.datasource primary keeps the writes, see {@link ReplicaRoutingDataSource}. Requires
+ * spring.jpa.open-in-view=false, an entity manager held over the request would keep the connection of its first read.
+ * Read-only transactions do not fill the second level cache, see {@link ReplicaJpaDialect}
+ */
+@Configuration
+@ConditionalOnProperty(name = "store.datasource.replicas[0].url")
+@EnableConfigurationProperties(ReplicaDataSourceProperties.class)
+public class ReplicaDataSourceConfiguration {
+
+    /**
+     * the spring.datasource primary, its pool is configured by spring.datasource.hikari like the auto-configured one
+     */
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties dataSourceProperties, MeterRegistry meterRegistry) {
+        HikariDataSource primary = dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        primary.setPoolName("primary");
+        primary.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+        return primary;
+    }
+
+    @Bean
+    public ReplicaRoutingDataSource replicaRoutingDataSource(HikariDataSource primaryDataSource,
+                                                             ReplicaDataSourceProperties replicaProperties,
+                                                             MeterRegistry meterRegistry) {
+        MicrometerMetricsTrackerFactory metrics = new MicrometerMetricsTrackerFactory(meterRegistry);
+        List<HikariDataSource> replicas = new ArrayList<>();
+        for (ReplicaDataSourceProperties.Replica properties : replicaProperties.getReplicas()) {
+            HikariDataSource replica = new HikariDataSource();
+            replica.setPoolName("replica-" + replicas.size());
+            replica.setJdbcUrl(properties.getUrl());
+            replica.setUsername(properties.getUsername());
+            replica.setPassword(properties.getPassword());
+            replica.setMaximumPoolSize(properties.getMaximumPoolSize());
+            replica.setConnectionTimeout(replicaProperties.getReplicaConnectionTimeout().toMillis());
+            replica.setReadOnly(true);
+            replica.setMetricsTrackerFactory(metrics);
+            replicas.add(replica);
+        }
+        return new ReplicaRoutingDataSource(primaryDataSource, replicas, replicaProperties.getReplicaSelection());
+    }
+
+    /**
+     * sets the dialect before the entity manager factory falls back to the one of its vendor adapter
+     */
+    @Bean
+    public static BeanPostProcessor replicaJpaDialectPostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof AbstractEntityManagerFactoryBean) {
+                    ((AbstractEntityManagerFactoryBean) bean).setJpaDialect(new ReplicaJpaDialect());
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+    }
+
+    @Bean
+    public ReplicaHealthIndicator replicasHealthIndicator(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return new ReplicaHealthIndicator(replicaRoutingDataSource);
+    }
+
+    @Bean
+    public FilterRegistrationBean<ReadYourWritesFilter> readYourWritesFilter(ReplicaDataSourceProperties replicaProperties) {
+        FilterRegistrationBean<ReadYourWritesFilter> registration =
+                new FilterRegistrationBean<>(new ReadYourWritesFilter(replicaProperties.getReadYourWritesWindow()));
+        registration.setEnabled(!replicaProperties.getReadYourWritesWindow().isZero());
+        return registration;
+    }
+}
@@ -0,0 +1,47 @@
+package com.pay.coniq.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * read replicas of the spring.datasource primary, see {@link ReplicaRoutingDataSource}
+ * */
+@Data
+@ConfigurationProperties(prefix = "store.datasource")
+public class ReplicaDataSourceProperties {
+
+    private List<Replica> replicas = new ArrayList<>();
+
+    private ReplicaRoutingDataSource.Selection replicaSelection = ReplicaRoutingDataSource.Selection.ROUND_ROBIN;
+
+    /**
+     * how long a replica pool waits for a connection before the read falls back to the primary
+     * */
+    private Duration replicaConnectionTimeout = Duration.ofSeconds(1);
+
+    /**
+     * reads of a client which sends a read token younger than this go to the primary, zero switches tokens off
+     * */
+    private Duration readYourWritesWindow = Duration.ofSeconds(2);
+
+    /**
+     * how far the replicas may lag behind the primary, list pages get no ETag for this long after a change
+     * */
+    private Duration maxReplicaLag = Duration.ofSeconds(2);
+
+    @Data
+    public static class Replica {
+
+        private String url;
+
+        private String username;
+
+        private String password;
+
+        private int maximumPoolSize = 10;
+    }
+}
@@ -0,0 +1,38 @@
+package com.pay.coniq.config;
+
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.util.Map;
+
+/**
+ * checks the replicas of {@link ReplicaRoutingDataSource} every store.datasource.replica-health-interval milliseconds
+ * and reports them as the replicas health. Reads fall back to the primary, so replicas which are down
+ * make the status DEGRADED rather than DOWN
+ */
+public class ReplicaHealthIndicator extends AbstractHealthIndicator {
+
+    public static final Status DEGRADED = new Status("DEGRADED", "reads of down replicas go to the primary");
+
+    private final ReplicaRoutingDataSource dataSource;
+
+    private volatile Map<String, Boolean> replicas = Map.of();
+
+    public ReplicaHealthIndicator(ReplicaRoutingDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Scheduled(fixedDelayString = "${store.datasource.replica-health-interval:5000}")
+    public void check() {
+        replicas = dataSource.checkReplicas();
+    }
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) {
+        Map<String, Boolean> replicas = this.replicas;
+        builder.status(replicas.containsValue(false) ? DEGRADED : Status.UP);
+        replicas.forEach((name, healthy) -> builder.withDetail(name, healthy ? Status.UP.getCode() : Status.DOWN.getCode()));
+    }
+}
@@ -0,0 +1,27 @@
+package com.pay.coniq.config;
+
+import org.springframework.orm.jpa.vendor.HibernateJpaDialect;
+import org.springframework.transaction.TransactionDefinition;
+
+import javax.persistence.CacheStoreMode;
+import javax.persistence.EntityManager;
+import java.sql.SQLException;
+
+/**
+ * read-only transactions read from replicas which may lag behind the primary, their entity managers read the
+ * second level and query caches but never put what they load into them. Only the primary fills the caches.
+ * Set as the JPA store mode, hibernate applies it to every find instead of the cache mode of the session
+ */
+public class ReplicaJpaDialect extends HibernateJpaDialect {
+
+    private static final String STORE_MODE = "javax.persistence.cache.storeMode";
+
+    @Override
+    public Object beginTransaction(EntityManager entityManager, TransactionDefinition definition) throws SQLException {
+        Object transactionData = super.beginTransaction(entityManager, definition);
+        if (definition.isReadOnly()) {
+            entityManager.setProperty(STORE_MODE, CacheStoreMode.BYPASS);
+        }
+        return transactionData;
+    }
+}
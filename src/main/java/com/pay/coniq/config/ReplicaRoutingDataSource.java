@@ -0,0 +1,214 @@
+package com.pay.coniq.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * sends the connections of read-only transactions to a healthy replica and everything else to the primary.
+ * Must be wrapped in a {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy} so the connection
+ * is taken when the first statement runs, after the transaction is marked read-only.
+ * A replica which fails to hand out a connection is marked down and the read goes to the primary,
+ * {@link #checkReplicas()} brings it back once it answers again.
+ * Within a read-your-writes session ({@link #beginSession(boolean)}) reads go to the primary after the session wrote,
+ * or from the start when the client's last write may not have reached the replicas yet.
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource implements AutoCloseable {
+
+    public enum Selection {
+        ROUND_ROBIN,
+        /**
+         * the replica with the fewest connections in use
+         */
+        LEAST_LOADED
+    }
+
+    private static final ThreadLocal<Session> SESSION = new ThreadLocal<>();
+
+    private final Logger log = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    private final HikariDataSource primary;
+
+    private final List<Replica> replicas = new ArrayList<>();
+
+    private final Selection selection;
+
+    private final int validationTimeoutSeconds;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    public ReplicaRoutingDataSource(HikariDataSource primary, List<HikariDataSource> replicas, Selection selection) {
+        this.primary = primary;
+        for (HikariDataSource replica : replicas) {
+            this.replicas.add(new Replica(replica));
+        }
+        this.selection = selection;
+        this.validationTimeoutSeconds = (int) Math.max(1, primary.getValidationTimeout() / 1000);
+    }
+
+    /**
+     * starts a read-your-writes session on the current thread, with primaryReads all reads go to the primary
+     */
+    public static void beginSession(boolean primaryReads) {
+        Session session = new Session();
+        session.primaryReads = primaryReads;
+        SESSION.set(session);
+    }
+
+    /**
+     * whether a read-write transaction took a connection in the current session
+     */
+    public static boolean hasWritten() {
+        Session session = SESSION.get();
+        return session != null && session.written;
+    }
+
+    public static void endSession() {
+        SESSION.remove();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Replica replica = route();
+        if (replica == null) {
+            return primary.getConnection();
+        }
+        try {
+            return replica.dataSource.getConnection();
+        } catch (SQLException e) {
+            markDown(replica, e);
+            return primary.getConnection();
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        Replica replica = route();
+        if (replica == null) {
+            return primary.getConnection(username, password);
+        }
+        try {
+            return replica.dataSource.getConnection(username, password);
+        } catch (SQLException e) {
+            markDown(replica, e);
+            return primary.getConnection(username, password);
+        }
+    }
+
+    /**
+     * validates a connection of every replica and updates its health, returns the health by pool name
+     */
+    public Map<String, Boolean> checkReplicas() {
+        Map<String, Boolean> health = new LinkedHashMap<>();
+        for (Replica replica : replicas) {
+            boolean healthy;
+            try (Connection connection = replica.dataSource.getConnection()) {
+                healthy = connection.isValid(validationTimeoutSeconds);
+            } catch (SQLException e) {
+                healthy = false;
+            }
+            if (healthy != replica.healthy) {
+                log.info("Replica {} is {}", replica.dataSource.getPoolName(), healthy ? "up" : "down");
+            }
+            replica.healthy = healthy;
+            health.put(replica.dataSource.getPoolName(), healthy);
+        }
+        return health;
+    }
+
+    public HikariDataSource getPrimary() {
+        return primary;
+    }
+
+    @Override
+    public void close() {
+        for (Replica replica : replicas) {
+            replica.dataSource.close();
+        }
+        primary.close();
+    }
+
+    /**
+     * the replica for the current transaction, null for the primary
+     */
+    private Replica route() {
+        Session session = SESSION.get();
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            if (session != null && TransactionSynchronizationManager.isActualTransactionActive()) {
+                session.written = true;
+            }
+            return null;
+        }
+        if (session != null && (session.primaryReads || session.written)) {
+            return null;
+        }
+        return selection == Selection.LEAST_LOADED ? leastLoaded() : roundRobin();
+    }
+
+    private Replica roundRobin() {
+        int start = next.getAndIncrement();
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get(Math.floorMod(start + i, replicas.size()));
+            if (replica.healthy) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    private Replica leastLoaded() {
+        Replica least = null;
+        int leastActive = Integer.MAX_VALUE;
+        // ties go round robin
+        int start = next.getAndIncrement();
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get(Math.floorMod(start + i, replicas.size()));
+            if (!replica.healthy) {
+                continue;
+            }
+            HikariPoolMXBean pool = replica.dataSource.getHikariPoolMXBean();
+            int active = pool != null ? pool.getActiveConnections() : 0;
+            if (active < leastActive) {
+                least = replica;
+                leastActive = active;
+            }
+        }
+        return least;
+    }
+
+    private void markDown(Replica replica, SQLException e) {
+        if (replica.healthy) {
+            log.warn("Replica {} is down, reading from the primary: {}", replica.dataSource.getPoolName(), e.getMessage());
+        }
+        replica.healthy = false;
+    }
+
+    private static final class Replica {
+
+        private final HikariDataSource dataSource;
+
+        private volatile boolean healthy = true;
+
+        private Replica(HikariDataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+    }
+
+    private static final class Session {
+
+        private boolean primaryReads;
+
+        private boolean written;
+    }
+}
@@ -0,0 +1,27 @@
+package com.pay.coniq.domain;
+
+import lombok.Data;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import java.io.Serializable;
+
+/**
+ * sequence number of the last audit journal record written to the envers tables, one row per journal
+ * keyed by the journal id, updated in the same transaction as the audit rows so a replayed record is never
+ * written twice.
+ * see also {@link com.pay.coniq.service.audit.AsyncAuditWriter}
+ * */
+@Entity
+@Data
+public class AuditCheckpoint implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @Column(length = 36)
+    private String id;
+
+    private Long lastSeq;
+}
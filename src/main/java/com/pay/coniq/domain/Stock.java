@@ -2,6 +2,10 @@ package com.pay.coniq.domain;
 
 import com.pay.coniq.service.dto.StockDTO;
 import lombok.Data;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 import org.hibernate.envers.Audited;
 
 import javax.persistence.*;
@@ -15,21 +19,49 @@ import java.util.Objects;
  * see also {@link StockDTO}
  * */
 @Entity
+@Table(indexes = {
+        @Index(name = "stock_current_price_idx", columnList = "current_price"),
+        @Index(name = "stock_created_date_idx", columnList = "created_date"),
+        @Index(name = "stock_modified_date_idx", columnList = "modified_date")
+})
 @Data
 @Audited
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = Stock.CACHE_REGION)
 public class Stock extends AbstractTimestampEntity implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * second level cache region, only used with store.stock.second-level-cache=true.
+     * hql bulk updates evict it, {@link com.pay.coniq.repository.StockBatchRepository} evicts it after its jdbc updates
+     * */
+    public static final String CACHE_REGION = "stock";
+
+    /**
+     * pooled sequence so inserts can be batched, on databases without sequences (MySQL)
+     * hibernate emulates stock_seq with a single row table
+     * */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(generator = "stock_seq")
+    @GenericGenerator(name = "stock_seq", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator", parameters = {
+            @Parameter(name = "sequence_name", value = "stock_seq"),
+            @Parameter(name = "increment_size", value = "50"),
+            @Parameter(name = "optimizer", value = "pooled-lo")
+    })
     private Long id;
     @Column(unique = true)
     @NotNull
     private String name;
-    @Column
+    @Column(name = "current_price")
     @NotNull
     private BigDecimal currentPrice;
+    /**
+     * optimistic lock, exposed as the ETag of the stock. envers does not audit it
+     * */
+    @Version
+    @Column(nullable = false)
+    private Long version;
 
 
 
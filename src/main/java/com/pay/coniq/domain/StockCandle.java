@@ -0,0 +1,81 @@
+package com.pay.coniq.domain;
+
+import lombok.Data;
+
+import javax.persistence.EmbeddedId;
+import javax.persistence.Entity;
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+/**
+ * rolled up open/high/low/close of one stock within one candle bucket.
+ * openTime and closeTime are the timestamps of the opening and closing price, they decide which price
+ * opens or closes the bucket when changes are merged out of order.
+ * maintained with plain SQL by {@link com.pay.coniq.repository.StockCandleRepository}
+ * */
+@Entity
+@Data
+public class StockCandle implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @EmbeddedId
+    private StockCandleId id;
+    private BigDecimal openPrice;
+    private Long openTime;
+    private BigDecimal highPrice;
+    private BigDecimal lowPrice;
+    private BigDecimal closePrice;
+    private Long closeTime;
+    private Long updateCount;
+
+    /**
+     * candle of a single price
+     */
+    public static StockCandle of(StockCandleId id, BigDecimal price, long timestamp) {
+        StockCandle candle = new StockCandle();
+        candle.setId(id);
+        candle.setOpenPrice(price);
+        candle.setOpenTime(timestamp);
+        candle.setHighPrice(price);
+        candle.setLowPrice(price);
+        candle.setClosePrice(price);
+        candle.setCloseTime(timestamp);
+        candle.setUpdateCount(1L);
+        return candle;
+    }
+
+    /**
+     * merges a later price into this candle, used when prices arrive in order
+     */
+    public void add(BigDecimal price, long timestamp) {
+        highPrice = highPrice.max(price);
+        lowPrice = lowPrice.min(price);
+        if (timestamp >= closeTime) {
+            closePrice = price;
+            closeTime = timestamp;
+        }
+        if (timestamp < openTime) {
+            openPrice = price;
+            openTime = timestamp;
+        }
+        updateCount++;
+    }
+
+    /**
+     * merges another candle of the same bucket into this one, in any order
+     */
+    public void merge(StockCandle other) {
+        highPrice = highPrice.max(other.highPrice);
+        lowPrice = lowPrice.min(other.lowPrice);
+        if (other.closeTime >= closeTime) {
+            closePrice = other.closePrice;
+            closeTime = other.closeTime;
+        }
+        if (other.openTime < openTime) {
+            openPrice = other.openPrice;
+            openTime = other.openTime;
+        }
+        updateCount += other.updateCount;
+    }
+}
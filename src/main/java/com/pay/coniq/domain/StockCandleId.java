@@ -0,0 +1,27 @@
+package com.pay.coniq.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import java.io.Serializable;
+
+/**
+ * primary key of {@link StockCandle}, bucketInterval is a {@link com.pay.coniq.service.dto.CandleInterval} code
+ * and bucketStart the epoch milliseconds the bucket starts at
+ * */
+@Embeddable
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StockCandleId implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private Long stockId;
+    @Column(length = 2)
+    private String bucketInterval;
+    private Long bucketStart;
+}
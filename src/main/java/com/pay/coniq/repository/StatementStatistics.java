@@ -0,0 +1,74 @@
+package com.pay.coniq.repository;
+
+/**
+ * jdbc round trips and their execution time on the current thread, a batch counts as one round trip.
+ * {@link StatementStatisticsDataSource} times every execution on the connections of the application data source,
+ * those of hibernate as well as of jdbc templates, and keeps the statements which write envers audit rows
+ * (stock_aud and revinfo) apart.
+ * Counting is plain fields of a thread local, {@link #start()} resets them at the beginning of a unit of work,
+ * e.g. a request in {@link com.pay.coniq.web.rest.util.RequestMetricsFilter}.
+ */
+public final class StatementStatistics {
+
+    private static final ThreadLocal<StatementStatistics> CURRENT = ThreadLocal.withInitial(StatementStatistics::new);
+
+    private long statements;
+
+    private long executionNanos;
+
+    private long auditStatements;
+
+    private long auditNanos;
+
+    private StatementStatistics() {
+    }
+
+    /**
+     * resets and returns the statistics of the current thread
+     */
+    public static StatementStatistics start() {
+        StatementStatistics statistics = CURRENT.get();
+        statistics.statements = 0;
+        statistics.executionNanos = 0;
+        statistics.auditStatements = 0;
+        statistics.auditNanos = 0;
+        return statistics;
+    }
+
+    public long getStatements() {
+        return statements;
+    }
+
+    public long getExecutionNanos() {
+        return executionNanos;
+    }
+
+    public long getAuditStatements() {
+        return auditStatements;
+    }
+
+    public long getAuditNanos() {
+        return auditNanos;
+    }
+
+    /**
+     * counts one statement or batch which took the given time
+     */
+    void record(long nanos, boolean audit) {
+        statements++;
+        executionNanos += nanos;
+        if (audit) {
+            auditStatements++;
+            auditNanos += nanos;
+        }
+    }
+
+    static StatementStatistics current() {
+        return CURRENT.get();
+    }
+
+    static boolean isAudit(String sql) {
+        return sql != null && (sql.regionMatches(true, 0, "insert into stock_aud", 0, 21)
+                || sql.regionMatches(true, 0, "insert into revinfo", 0, 19));
+    }
+}
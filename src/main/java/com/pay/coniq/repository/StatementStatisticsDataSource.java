@@ -0,0 +1,145 @@
+package com.pay.coniq.repository;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+
+/**
+ * counts and times the statement executions of its connections in the {@link StatementStatistics} of the calling
+ * thread. connections and statements are wrapped in dynamic proxies, execute* and executeBatch are timed, every
+ * other call goes straight through. a prepared statement is an audit insert by the sql it was prepared with,
+ * a plain one by the sql it executes or the last one added to its batch
+ */
+public class StatementStatisticsDataSource extends DelegatingDataSource implements AutoCloseable {
+
+    private static final Set<String> EXECUTE_METHODS = Set.of("execute", "executeQuery", "executeUpdate",
+            "executeLargeUpdate", "executeBatch", "executeLargeBatch");
+
+    private static final Set<String> PREPARE_METHODS = Set.of("prepareStatement", "prepareCall");
+
+    public StatementStatisticsDataSource(DataSource targetDataSource) {
+        super(targetDataSource);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return wrap(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return wrap(super.getConnection(username, password));
+    }
+
+    /**
+     * closes the target data source, a pool, when it can be closed
+     */
+    @Override
+    public void close() throws Exception {
+        DataSource target = getTargetDataSource();
+        if (target instanceof AutoCloseable) {
+            ((AutoCloseable) target).close();
+        }
+    }
+
+    private static Connection wrap(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(StatementStatisticsDataSource.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new ConnectionHandler(connection));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    private static final class ConnectionHandler implements InvocationHandler {
+
+        private final Connection target;
+
+        private ConnectionHandler(Connection target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Statistics proxy for " + target;
+                default:
+                    break;
+            }
+            Object result = StatementStatisticsDataSource.invoke(target, method, args);
+            if (result instanceof Statement) {
+                String sql = PREPARE_METHODS.contains(method.getName()) ? (String) args[0] : null;
+                Class<?> type = result instanceof CallableStatement ? CallableStatement.class
+                        : result instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+                return Proxy.newProxyInstance(StatementStatisticsDataSource.class.getClassLoader(), new Class<?>[]{type},
+                        new StatementHandler((Statement) result, StatementStatistics.isAudit(sql)));
+            }
+            return result;
+        }
+    }
+
+    private static final class StatementHandler implements InvocationHandler {
+
+        private final Statement target;
+
+        private final boolean prepared;
+
+        private boolean audit;
+
+        private StatementHandler(Statement target, boolean audit) {
+            this.target = target;
+            this.prepared = target instanceof PreparedStatement;
+            this.audit = audit;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Statistics proxy for " + target;
+                case "addBatch":
+                    if (!prepared && args != null && args.length == 1) {
+                        audit = StatementStatistics.isAudit((String) args[0]);
+                    }
+                    return StatementStatisticsDataSource.invoke(target, method, args);
+                default:
+                    break;
+            }
+            if (!EXECUTE_METHODS.contains(name)) {
+                return StatementStatisticsDataSource.invoke(target, method, args);
+            }
+            boolean executesAudit = !prepared && args != null && args.length > 0 && args[0] instanceof String
+                    ? StatementStatistics.isAudit((String) args[0]) : audit;
+            long start = System.nanoTime();
+            try {
+                return StatementStatisticsDataSource.invoke(target, method, args);
+            } finally {
+                StatementStatistics.current().record(System.nanoTime() - start, executesAudit);
+            }
+        }
+    }
+}
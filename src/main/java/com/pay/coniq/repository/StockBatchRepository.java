@@ -0,0 +1,130 @@
+package com.pay.coniq.repository;
+
+import com.pay.coniq.config.AuditConfiguration;
+import com.pay.coniq.domain.Stock;
+import org.hibernate.action.internal.BulkOperationCleanupAction;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.envers.AuditReaderFactory;
+import org.hibernate.envers.DefaultRevisionEntity;
+import org.hibernate.persister.entity.Queryable;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.EntityManager;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JDBC batch operations on {@link Stock} which bypass the persistence context.
+ * Envers only audits entities that go through the session, so every method here
+ * writes the matching stock_aud rows itself against the revision of the current transaction.
+ * Like a {@code @Modifying(flushAutomatically = true, clearAutomatically = true)} query,
+ * pending changes are flushed before and the persistence context is cleared after each update,
+ * and like an hql bulk update the second level cache region of stock and cached queries on stock are invalidated.
+ * Must be called inside a transaction.
+ * With store.audit.mode=async no audit rows are written here, the published
+ * {@link com.pay.coniq.service.event.StockChangedEvent}s are journaled instead.
+ */
+@Repository
+public class StockBatchRepository {
+
+    /**
+     * envers revision type of a modification, see {@link org.hibernate.envers.RevisionType}
+     */
+    private static final int REVTYPE_MOD = 1;
+
+    private static final String UPDATE_PRICE_SQL =
+            "update stock set current_price = ?, modified_date = ?, version = version + 1 where id = ?";
+
+    private static final String AUDIT_FROM_STOCK_SQL =
+            "insert into stock_aud (id, rev, revtype, current_price, name) " +
+                    "select id, ?, ?, current_price, name from stock where id = ?";
+
+    private static final String AUDIT_SQL =
+            "insert into stock_aud (id, rev, revtype, current_price, name) values (?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final EntityManager em;
+
+    private final int batchSize;
+
+    private final boolean syncAudit;
+
+    public StockBatchRepository(JdbcTemplate jdbcTemplate, EntityManager em,
+                                @Value("${store.stock.batch-size:500}") int batchSize,
+                                @Value("${" + AuditConfiguration.MODE_PROPERTY + ":sync}") String auditMode) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.em = em;
+        this.batchSize = batchSize;
+        this.syncAudit = !AuditConfiguration.MODE_ASYNC.equals(auditMode);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * updates current_price and modified_date of the given stocks using batched UPDATE statements
+     * followed by batched audit inserts. The caller is responsible for passing existing ids only.
+     */
+    public void updatePrices(Map<Long, BigDecimal> prices) {
+        if (prices.isEmpty()) {
+            return;
+        }
+        em.flush();
+        List<Map.Entry<Long, BigDecimal>> entries = List.copyOf(prices.entrySet());
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        jdbcTemplate.batchUpdate(UPDATE_PRICE_SQL, entries, batchSize, (ps, entry) -> {
+            ps.setBigDecimal(1, entry.getValue());
+            ps.setTimestamp(2, now);
+            ps.setLong(3, entry.getKey());
+        });
+        if (syncAudit) {
+            int rev = currentRevision();
+            jdbcTemplate.batchUpdate(AUDIT_FROM_STOCK_SQL, entries, batchSize, (ps, entry) -> {
+                ps.setInt(1, rev);
+                ps.setInt(2, REVTYPE_MOD);
+                ps.setLong(3, entry.getKey());
+            });
+        }
+        invalidateCache();
+        em.clear();
+    }
+
+    /**
+     * writes the modification audit row of a stock updated outside of the persistence context
+     */
+    public void auditUpdate(Stock stock) {
+        if (!syncAudit) {
+            return;
+        }
+        int rev = currentRevision();
+        jdbcTemplate.update(AUDIT_SQL, stock.getId(), rev, REVTYPE_MOD, stock.getCurrentPrice(), stock.getName());
+    }
+
+    /**
+     * registers the cleanup hibernate runs after an hql bulk update of {@link Stock}: the cache region is emptied and
+     * cached queries on stock are invalidated now and again when the transaction completes.
+     * a no-op without second level and query cache
+     */
+    private void invalidateCache() {
+        SessionImplementor session = em.unwrap(SessionImplementor.class);
+        Queryable persister = (Queryable) session.getFactory().getMetamodel().entityPersister(Stock.class);
+        session.getActionQueue().addAction(new BulkOperationCleanupAction(session, persister));
+    }
+
+    /**
+     * returns the envers revision of the current transaction, creating and flushing it
+     * so that audit rows can reference it
+     */
+    private int currentRevision() {
+        DefaultRevisionEntity revision = AuditReaderFactory.get(em)
+                .getCurrentRevision(DefaultRevisionEntity.class, true);
+        em.flush();
+        return revision.getId();
+    }
+}
@@ -0,0 +1,116 @@
+package com.pay.coniq.repository;
+
+import com.pay.coniq.domain.StockCandle;
+import com.pay.coniq.domain.StockCandleId;
+import com.pay.coniq.service.dto.CandleDTO;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JDBC access to the {@link StockCandle} rollup. Candles are merged with a single conditional UPDATE,
+ * the earlier openTime keeps the open and the later closeTime the close, so merging is commutative and
+ * changes of the open bucket may arrive in any order. Rows which do not exist yet are inserted, a row
+ * inserted concurrently by another writer is merged into instead.
+ */
+@Repository
+public class StockCandleRepository {
+
+    private static final String MERGE_SQL =
+            "update stock_candle set " +
+                    "open_price = case when ? < open_time then ? else open_price end, " +
+                    "open_time = least(open_time, ?), " +
+                    "close_price = case when ? >= close_time then ? else close_price end, " +
+                    "close_time = greatest(close_time, ?), " +
+                    "high_price = greatest(high_price, ?), " +
+                    "low_price = least(low_price, ?), " +
+                    "update_count = update_count + ? " +
+                    "where stock_id = ? and bucket_interval = ? and bucket_start = ?";
+
+    private static final String INSERT_SQL =
+            "insert into stock_candle (stock_id, bucket_interval, bucket_start, open_price, open_time, " +
+                    "high_price, low_price, close_price, close_time, update_count) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String FIND_SQL =
+            "select bucket_start, open_price, high_price, low_price, close_price, update_count from stock_candle " +
+                    "where stock_id = ? and bucket_interval = ? and bucket_start >= ? and bucket_start < ? order by bucket_start";
+
+    private static final String DELETE_SQL =
+            "delete from stock_candle where stock_id = ? and bucket_interval = ? and bucket_start >= ? and bucket_start < ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public StockCandleRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * merges the candles into the rollup, batched. Candles must have distinct ids
+     */
+    public void merge(List<StockCandle> candles) {
+        if (candles.isEmpty()) {
+            return;
+        }
+        int[] updated = jdbcTemplate.batchUpdate(MERGE_SQL, candles, candles.size(), (ps, candle) -> {
+            ps.setLong(1, candle.getOpenTime());
+            ps.setBigDecimal(2, candle.getOpenPrice());
+            ps.setLong(3, candle.getOpenTime());
+            ps.setLong(4, candle.getCloseTime());
+            ps.setBigDecimal(5, candle.getClosePrice());
+            ps.setLong(6, candle.getCloseTime());
+            ps.setBigDecimal(7, candle.getHighPrice());
+            ps.setBigDecimal(8, candle.getLowPrice());
+            ps.setLong(9, candle.getUpdateCount());
+            ps.setLong(10, candle.getId().getStockId());
+            ps.setString(11, candle.getId().getBucketInterval());
+            ps.setLong(12, candle.getId().getBucketStart());
+        })[0];
+        List<StockCandle> missing = new ArrayList<>();
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i] == 0) {
+                missing.add(candles.get(i));
+            }
+        }
+        for (StockCandle candle : missing) {
+            try {
+                insert(candle);
+            } catch (DuplicateKeyException e) {
+                merge(List.of(candle));
+            }
+        }
+    }
+
+    /**
+     * candles of the stock with bucketStart in [from, to), oldest first
+     */
+    public List<CandleDTO> findCandles(Long stockId, String bucketInterval, long from, long to) {
+        return jdbcTemplate.query(FIND_SQL, (rs, rowNum) -> {
+            CandleDTO candle = new CandleDTO();
+            candle.setStart(Instant.ofEpochMilli(rs.getLong(1)));
+            candle.setOpen(rs.getBigDecimal(2));
+            candle.setHigh(rs.getBigDecimal(3));
+            candle.setLow(rs.getBigDecimal(4));
+            candle.setClose(rs.getBigDecimal(5));
+            candle.setCount(rs.getLong(6));
+            return candle;
+        }, stockId, bucketInterval, from, to);
+    }
+
+    /**
+     * deletes the candles of the stock with bucketStart in [from, to)
+     */
+    public int delete(Long stockId, String bucketInterval, long from, long to) {
+        return jdbcTemplate.update(DELETE_SQL, stockId, bucketInterval, from, to);
+    }
+
+    private void insert(StockCandle candle) {
+        StockCandleId id = candle.getId();
+        jdbcTemplate.update(INSERT_SQL, id.getStockId(), id.getBucketInterval(), id.getBucketStart(),
+                candle.getOpenPrice(), candle.getOpenTime(), candle.getHighPrice(), candle.getLowPrice(),
+                candle.getClosePrice(), candle.getCloseTime(), candle.getUpdateCount());
+    }
+}
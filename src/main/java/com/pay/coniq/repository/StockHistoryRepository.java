@@ -0,0 +1,133 @@
+package com.pay.coniq.repository;
+
+import com.pay.coniq.service.dto.StockChangeDTO;
+import com.pay.coniq.service.dto.StockPriceHistoryDTO;
+import com.pay.coniq.service.event.StockChangedEvent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * read access to the envers audit trail of {@link com.pay.coniq.domain.Stock}.
+ * Time ranges are translated into revision ranges once through the revinfo timestamp index,
+ * stock_aud is then read by a range scan of its (id, rev) primary key.
+ * Revision numbers grow with their timestamps, both are assigned when the revision is created in the writing
+ * transaction, not when it commits. Concurrent transactions can commit out of order, so a revision may become
+ * visible after later ones: a time range read before it committed misses it, which is why delta sync only
+ * hands out cursors older than store.changes.settle.
+ * With store.audit.mode=async the revision is created when the journaled change is written, its timestamp is the
+ * commit time of the change raised to the latest timestamp in revinfo, see
+ * {@link com.pay.coniq.service.audit.AsyncAuditWriter}, so timestamps still grow with revision numbers
+ */
+@Repository
+public class StockHistoryRepository {
+
+    /**
+     * envers revision types, see {@link org.hibernate.envers.RevisionType}
+     */
+    private static final StockChangedEvent.Type[] REVTYPES = {
+            StockChangedEvent.Type.CREATED, StockChangedEvent.Type.UPDATED, StockChangedEvent.Type.DELETED};
+
+    private static final int REVTYPE_DEL = 2;
+
+    private static final String FIRST_REVISION_SQL = "select min(rev) from revinfo where revtstmp >= ?";
+
+    private static final String HISTORY_SQL =
+            "select a.rev, r.revtstmp, a.revtype, a.current_price from stock_aud a join revinfo r on r.rev = a.rev " +
+                    "where a.id = ? and a.rev >= ? and a.rev < ? order by a.rev limit ?";
+
+    private static final String LAST_REVISION_SQL = "select max(rev) from revinfo";
+
+    private static final String CHANGED_IDS_SQL = "select distinct id from stock_aud where rev >= ? and rev < ?";
+
+    private static final String PRICES_SQL =
+            "select r.revtstmp, a.current_price from stock_aud a join revinfo r on r.rev = a.rev " +
+                    "where a.id = ? and a.rev >= ? and a.rev < ? and a.revtype <> " + REVTYPE_DEL + " order by a.rev";
+
+    /**
+     * latest revision of every stock changed after the given one, seeks on the rev index of the
+     * foreign key to revinfo and on the (id, rev) primary key
+     */
+    private static final String CHANGES_SQL =
+            "select a.id, a.rev, r.revtstmp, a.revtype, coalesce(a.name, s.name), a.current_price " +
+                    "from stock_aud a join revinfo r on r.rev = a.rev left join stock s on s.id = a.id " +
+                    "where a.rev > ? and a.rev = (select max(b.rev) from stock_aud b where b.id = a.id) order by a.rev, a.id";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * own template so that streamed queries fetch store.stock.batch-size rows at a time,
+     * it still takes part in the current transaction
+     */
+    public StockHistoryRepository(JdbcTemplate jdbcTemplate, @Value("${store.stock.batch-size:500}") int batchSize) {
+        this.jdbcTemplate = new JdbcTemplate(jdbcTemplate.getDataSource());
+        this.jdbcTemplate.setFetchSize(batchSize);
+    }
+
+    /**
+     * first revision at or after the given time, {@link Integer#MAX_VALUE} when there is none yet
+     * so that it can be used as an exclusive upper bound
+     */
+    public int findFirstRevision(Instant timestamp) {
+        Integer rev = jdbcTemplate.queryForObject(FIRST_REVISION_SQL, Integer.class, timestamp.toEpochMilli());
+        return rev == null ? Integer.MAX_VALUE : rev;
+    }
+
+    /**
+     * revisions of the stock in [fromRev, toRev), at most limit of them
+     */
+    public List<StockPriceHistoryDTO> findHistory(Long id, int fromRev, int toRev, int limit) {
+        return jdbcTemplate.query(HISTORY_SQL, (rs, rowNum) -> {
+            StockPriceHistoryDTO history = new StockPriceHistoryDTO();
+            history.setRev(rs.getInt(1));
+            history.setTimestamp(Instant.ofEpochMilli(rs.getLong(2)));
+            history.setType(REVTYPES[rs.getInt(3)]);
+            history.setCurrentPrice(rs.getBigDecimal(4));
+            return history;
+        }, id, fromRev, toRev, limit);
+    }
+
+    public int findLastRevision() {
+        Integer rev = jdbcTemplate.queryForObject(LAST_REVISION_SQL, Integer.class);
+        return rev == null ? 0 : rev;
+    }
+
+    /**
+     * ids of the stocks with revisions in [fromRev, toRev)
+     */
+    public List<Long> findChangedIds(int fromRev, int toRev) {
+        return jdbcTemplate.queryForList(CHANGED_IDS_SQL, Long.class, fromRev, toRev);
+    }
+
+    /**
+     * passes (revtstmp, current_price) of every audited price of the stock in [fromRev, toRev) to the handler,
+     * in revision order. rows are streamed and never collected
+     */
+    public void streamPrices(Long id, int fromRev, int toRev, RowCallbackHandler handler) {
+        jdbcTemplate.query(PRICES_SQL, handler, id, fromRev, toRev);
+    }
+
+    /**
+     * passes the latest revision of every stock changed after the given revision to the consumer,
+     * in revision order. rows are streamed and never collected
+     */
+    public void streamChanges(int afterRev, Consumer<StockChangeDTO> consumer) {
+        jdbcTemplate.query(CHANGES_SQL, rs -> {
+            StockChangeDTO change = new StockChangeDTO();
+            change.setId(rs.getLong(1));
+            change.setRev(rs.getInt(2));
+            change.setTimestamp(Instant.ofEpochMilli(rs.getLong(3)));
+            change.setType(REVTYPES[rs.getInt(4)]);
+            if (rs.getInt(4) != REVTYPE_DEL) {
+                change.setName(rs.getString(5));
+                change.setCurrentPrice(rs.getBigDecimal(6));
+            }
+            consumer.accept(change);
+        }, afterRev);
+    }
+}
@@ -0,0 +1,165 @@
+package com.pay.coniq.repository;
+
+import com.pay.coniq.domain.Stock;
+import com.pay.coniq.service.dto.StockDTO;
+import org.hibernate.FlushMode;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.data.support.PageableExecutionUtils;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.hibernate.jpa.QueryHints.HINT_CACHEABLE;
+import static org.hibernate.jpa.QueryHints.HINT_FLUSH_MODE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
+/**
+ * read path of stock lists which selects only the requested columns straight into {@link StockDTO}.
+ * no entity is materialised, so there is no persistence context snapshot, no dirty check and no flush
+ * before the query. fields which are not selected stay null
+ */
+@Repository
+public class StockReadRepository {
+
+    /**
+     * every field of {@link StockDTO} which can be selected, in the order of the select list
+     */
+    public static final Set<String> FIELDS = Collections.unmodifiableSet(new LinkedHashSet<>(
+            Arrays.asList("id", "name", "currentPrice", "version", "createdDate", "modifiedDate")));
+
+    private final EntityManager em;
+
+    public StockReadRepository(EntityManager em) {
+        this.em = em;
+    }
+
+    /**
+     * offset page of the matching stocks, the count query is skipped when the page is the last one
+     */
+    public Page<StockDTO> findPage(Specification<Stock> spec, Pageable pageable, Set<String> fields) {
+        List<StockDTO> content = query(spec, pageable.getSort(), (int) pageable.getOffset(), pageable.getPageSize(), fields, true);
+        return PageableExecutionUtils.getPage(content, pageable, () -> count(spec));
+    }
+
+    /**
+     * first size stocks matching the spec, one more row is read instead of counting
+     */
+    public Slice<StockDTO> findSlice(Specification<Stock> spec, Sort sort, int size, Set<String> fields) {
+        List<StockDTO> content = query(spec, sort, 0, size + 1, fields, true);
+        boolean hasNext = content.size() > size;
+        return new SliceImpl<>(hasNext ? content.subList(0, size) : content, PageRequest.of(0, size, sort), hasNext);
+    }
+
+    /**
+     * every field of the stock matching a unique key. unlike the list queries pending changes are flushed
+     * first and the result is not put in the query cache
+     */
+    public Optional<StockDTO> findOne(Specification<Stock> spec) {
+        return query(spec, Sort.unsorted(), 0, 1, FIELDS, false).stream().findFirst();
+    }
+
+    private List<StockDTO> query(Specification<Stock> spec, Sort sort, int offset, int limit, Set<String> fields, boolean list) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        Root<Stock> root = query.from(Stock.class);
+        List<String> selected = new ArrayList<>(FIELDS.size());
+        List<Selection<?>> selections = new ArrayList<>(FIELDS.size());
+        for (String field : FIELDS) {
+            // the id and the sort keys are always read, they make up the keyset cursor
+            if (fields.contains(field) || "id".equals(field) || sort.getOrderFor(field) != null) {
+                selected.add(field);
+                selections.add(root.get(field).alias(field));
+            }
+        }
+        query.multiselect(selections);
+        Predicate predicate = spec.toPredicate(root, query, cb);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        query.orderBy(QueryUtils.toOrders(sort, root, cb));
+        TypedQuery<Tuple> typedQuery = em.createQuery(query)
+                .setFirstResult(offset)
+                .setMaxResults(limit)
+                .setHint(HINT_READONLY, true);
+        if (list) {
+            typedQuery.setHint(HINT_FLUSH_MODE, FlushMode.MANUAL)
+                    .setHint(HINT_CACHEABLE, true);
+        }
+        List<Tuple> tuples = typedQuery.getResultList();
+        List<StockDTO> stocks = new ArrayList<>(tuples.size());
+        for (Tuple tuple : tuples) {
+            stocks.add(toDto(tuple, selected));
+        }
+        return stocks;
+    }
+
+    private long count(Specification<Stock> spec) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Long> query = cb.createQuery(Long.class);
+        Root<Stock> root = query.from(Stock.class);
+        query.select(cb.count(root));
+        Predicate predicate = spec.toPredicate(root, query, cb);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        return em.createQuery(query)
+                .setHint(HINT_FLUSH_MODE, FlushMode.MANUAL)
+                .setHint(HINT_CACHEABLE, true)
+                .getSingleResult();
+    }
+
+    private static StockDTO toDto(Tuple tuple, List<String> selected) {
+        StockDTO stock = new StockDTO();
+        for (int i = 0; i < selected.size(); i++) {
+            Object value = tuple.get(i);
+            switch (selected.get(i)) {
+                case "id":
+                    stock.setId((Long) value);
+                    break;
+                case "name":
+                    stock.setName((String) value);
+                    break;
+                case "currentPrice":
+                    stock.setCurrentPrice((BigDecimal) value);
+                    break;
+                case "version":
+                    stock.setVersion((Long) value);
+                    break;
+                case "createdDate":
+                    stock.setCreatedDate(toInstant((Timestamp) value));
+                    break;
+                default:
+                    stock.setModifiedDate(toInstant((Timestamp) value));
+            }
+        }
+        return stock;
+    }
+
+    private static Instant toInstant(Timestamp timestamp) {
+        return timestamp == null ? null : timestamp.toInstant();
+    }
+}
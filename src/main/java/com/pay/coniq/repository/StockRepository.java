@@ -1,8 +1,81 @@
 package com.pay.coniq.repository;
 
 import com.pay.coniq.domain.Stock;
+import com.pay.coniq.service.dto.StockNameDTO;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import javax.persistence.QueryHint;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_CACHEABLE;
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
 
 public interface StockRepository extends JpaRepository<Stock, Long>, JpaSpecificationExecutor<Stock> {
+
+    Optional<Stock> findOneByName(String name);
+
+    /**
+     * page queries are cacheable, the query cache is only used with store.stock.second-level-cache=true
+     */
+    @Override
+    @QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
+    Page<Stock> findAll(Pageable pageable);
+
+    /**
+     * all stocks in id order as a cursor backed stream, must be consumed inside a transaction and closed.
+     * on MySQL the fetch size is only honoured with useCursorFetch=true
+     */
+    @QueryHints({
+            @QueryHint(name = HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HINT_READONLY, value = "true")
+    })
+    @Query("select s from Stock s order by s.id")
+    Stream<Stock> streamAll();
+
+    /**
+     * id and name of every stock as a cursor backed stream, must be consumed inside a transaction and closed
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    @Query("select new com.pay.coniq.service.dto.StockNameDTO(s.id, s.name) from Stock s")
+    Stream<StockNameDTO> streamAllNames();
+
+    @Query("select s.id from Stock s where s.id in :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+
+    /**
+     * single statement price update, bypasses dirty checking and therefore envers,
+     * see {@link StockBatchRepository#auditUpdate(Stock)}
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Stock s set s.currentPrice = :currentPrice, s.modifiedDate = :modifiedDate, s.version = s.version + 1 where s.id = :id")
+    int updateCurrentPrice(@Param("id") Long id, @Param("currentPrice") BigDecimal currentPrice,
+                           @Param("modifiedDate") Timestamp modifiedDate);
+
+    /**
+     * like {@link #updateCurrentPrice(Long, BigDecimal, Timestamp)} but only when the row still has one of the
+     * given versions
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Stock s set s.currentPrice = :currentPrice, s.modifiedDate = :modifiedDate, s.version = s.version + 1 " +
+            "where s.id = :id and s.version in :versions")
+    int updateCurrentPrice(@Param("id") Long id, @Param("currentPrice") BigDecimal currentPrice,
+                           @Param("modifiedDate") Timestamp modifiedDate, @Param("versions") Collection<Long> versions);
+
+    List<Stock> findAllByNameIn(Collection<String> names);
+
+    @Query("select s.name from Stock s where s.name in :names")
+    List<String> findExistingNames(@Param("names") Collection<String> names);
 }
@@ -0,0 +1,112 @@
+package com.pay.coniq.repository;
+
+import com.pay.coniq.domain.Stock;
+import com.pay.coniq.service.dto.StockCriteria;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Instant;
+
+/**
+ * composable filters of {@link Stock} for {@link StockRepository}.
+ * price and the timestamps seek on their own index, a name prefix on the unique name index,
+ * name contains can not use an index and should be combined with a seekable filter on big tables
+ * */
+public final class StockSpecifications {
+
+    private static final char LIKE_ESCAPE = '\\';
+
+    private StockSpecifications() {
+    }
+
+    public static Specification<Stock> priceAtLeast(BigDecimal price) {
+        return (root, query, cb) -> cb.greaterThanOrEqualTo(root.get("currentPrice"), price);
+    }
+
+    public static Specification<Stock> priceAtMost(BigDecimal price) {
+        return (root, query, cb) -> cb.lessThanOrEqualTo(root.get("currentPrice"), price);
+    }
+
+    public static Specification<Stock> nameStartsWith(String prefix) {
+        return (root, query, cb) -> cb.like(root.get("name"), escapeLike(prefix) + "%", LIKE_ESCAPE);
+    }
+
+    public static Specification<Stock> nameContains(String part) {
+        return (root, query, cb) -> cb.like(cb.lower(root.get("name")), "%" + escapeLike(part.toLowerCase()) + "%", LIKE_ESCAPE);
+    }
+
+    public static Specification<Stock> createdSince(Instant since) {
+        return (root, query, cb) -> cb.greaterThanOrEqualTo(root.get("createdDate"), Timestamp.from(since));
+    }
+
+    public static Specification<Stock> createdUntil(Instant until) {
+        return (root, query, cb) -> cb.lessThanOrEqualTo(root.get("createdDate"), Timestamp.from(until));
+    }
+
+    public static Specification<Stock> modifiedSince(Instant since) {
+        return (root, query, cb) -> cb.greaterThanOrEqualTo(root.get("modifiedDate"), Timestamp.from(since));
+    }
+
+    public static Specification<Stock> modifiedUntil(Instant until) {
+        return (root, query, cb) -> cb.lessThanOrEqualTo(root.get("modifiedDate"), Timestamp.from(until));
+    }
+
+    public static Specification<Stock> idEquals(Long id) {
+        return (root, query, cb) -> cb.equal(root.get("id"), id);
+    }
+
+    public static Specification<Stock> nameEquals(String name) {
+        return (root, query, cb) -> cb.equal(root.get("name"), name);
+    }
+
+    /**
+     * keyset seek on the id, see also {@link com.pay.coniq.service.dto.StockCursor}
+     */
+    public static Specification<Stock> idGreaterThan(Long id) {
+        return (root, query, cb) -> cb.greaterThan(root.get("id"), id);
+    }
+
+    /**
+     * keyset seek on the name, see also {@link com.pay.coniq.service.dto.StockCursor}
+     */
+    public static Specification<Stock> nameGreaterThan(String name) {
+        return (root, query, cb) -> cb.greaterThan(root.get("name"), name);
+    }
+
+    /**
+     * every filter set on the criteria combined with and, an empty criteria matches all stocks
+     */
+    public static Specification<Stock> matching(StockCriteria criteria) {
+        Specification<Stock> spec = Specification.where(null);
+        if (criteria.getMinPrice() != null) {
+            spec = spec.and(priceAtLeast(criteria.getMinPrice()));
+        }
+        if (criteria.getMaxPrice() != null) {
+            spec = spec.and(priceAtMost(criteria.getMaxPrice()));
+        }
+        if (criteria.getNamePrefix() != null && !criteria.getNamePrefix().isEmpty()) {
+            spec = spec.and(nameStartsWith(criteria.getNamePrefix()));
+        }
+        if (criteria.getNameContains() != null && !criteria.getNameContains().isEmpty()) {
+            spec = spec.and(nameContains(criteria.getNameContains()));
+        }
+        if (criteria.getCreatedSince() != null) {
+            spec = spec.and(createdSince(criteria.getCreatedSince()));
+        }
+        if (criteria.getCreatedUntil() != null) {
+            spec = spec.and(createdUntil(criteria.getCreatedUntil()));
+        }
+        if (criteria.getModifiedSince() != null) {
+            spec = spec.and(modifiedSince(criteria.getModifiedSince()));
+        }
+        if (criteria.getModifiedUntil() != null) {
+            spec = spec.and(modifiedUntil(criteria.getModifiedUntil()));
+        }
+        return spec;
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
@@ -0,0 +1,137 @@
+package com.pay.coniq.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.pay.coniq.service.dto.StockDTO;
+import com.pay.coniq.service.event.StockChangesEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * size bounded read-through cache of {@link StockDTO} keyed by id, with a secondary name to id index.
+ * eviction is Caffeine's W-TinyLFU plus expiry after write, the ttl bounds how long a read which
+ * raced with a commit can serve a stale value.
+ * entries are evicted when a change is published and again once its transaction completes,
+ * hit/miss/eviction counters are exposed as cache.* metrics.
+ * a loaded stock is only cached when no eviction happened while it was loaded, so a load which read the row before
+ * a concurrent commit can not put it back after the eviction. callers get copies, the cached dtos are never shared
+ */
+@Component
+public class StockCache {
+
+    private final Cache<Long, StockDTO> byId;
+
+    private final Cache<String, Long> byName;
+
+    /**
+     * bumped by every eviction. one counter for all stocks, a price update evicts by id only
+     * and a load by name does not know the id before it has read the row
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    public StockCache(@Value("${store.stock.cache.maximum-size:10000}") long maximumSize,
+                      @Value("${store.stock.cache.ttl:60s}") Duration ttl,
+                      MeterRegistry meterRegistry) {
+        this.byId = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        this.byName = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, byId, "stock.byId");
+        CaffeineCacheMetrics.monitor(meterRegistry, byName, "stock.byName");
+    }
+
+    /**
+     * returns the cached stock or loads and caches it, absent stocks are not cached
+     */
+    public Optional<StockDTO> get(Long id, Function<Long, Optional<StockDTO>> loader) {
+        StockDTO stock = byId.getIfPresent(id);
+        if (stock != null) {
+            return Optional.of(copy(stock));
+        }
+        long loadedAt = generation.get();
+        Optional<StockDTO> loaded = loader.apply(id);
+        loaded.ifPresent(load -> put(load, loadedAt));
+        return loaded;
+    }
+
+    /**
+     * returns the cached stock with the given name or loads and caches it, absent stocks are not cached
+     */
+    public Optional<StockDTO> getByName(String name, Function<String, Optional<StockDTO>> loader) {
+        Long id = byName.getIfPresent(name);
+        StockDTO stock = id == null ? null : byId.getIfPresent(id);
+        if (stock != null) {
+            return Optional.of(copy(stock));
+        }
+        long loadedAt = generation.get();
+        Optional<StockDTO> loaded = loader.apply(name);
+        loaded.ifPresent(load -> put(load, loadedAt));
+        return loaded;
+    }
+
+    public void evict(Long id, String name) {
+        // before invalidating, see put
+        generation.incrementAndGet();
+        byId.invalidate(id);
+        if (name != null) {
+            byName.invalidate(name);
+        }
+    }
+
+    public void clear() {
+        generation.incrementAndGet();
+        byId.invalidateAll();
+        byName.invalidateAll();
+    }
+
+    @EventListener
+    public void onStockChanged(StockChangesEvent event) {
+        event.getChanges().forEach(change -> evict(change.getId(), change.getName()));
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMPLETION)
+    public void onStockChangeCompleted(StockChangesEvent event) {
+        event.getChanges().forEach(change -> evict(change.getId(), change.getName()));
+    }
+
+    /**
+     * caches a copy unless an eviction happened since the load started. an eviction racing with the put either
+     * invalidates after it or is seen by the second check, which takes the entry out again
+     */
+    private void put(StockDTO stock, long loadedAt) {
+        if (generation.get() != loadedAt) {
+            return;
+        }
+        byId.put(stock.getId(), copy(stock));
+        byName.put(stock.getName(), stock.getId());
+        if (generation.get() != loadedAt) {
+            byId.invalidate(stock.getId());
+            byName.invalidate(stock.getName());
+        }
+    }
+
+    private static StockDTO copy(StockDTO stock) {
+        StockDTO copy = new StockDTO().name(stock.getName()).currentPrice(stock.getCurrentPrice());
+        copy.setId(stock.getId());
+        copy.setVersion(stock.getVersion());
+        copy.setCreatedDate(stock.getCreatedDate());
+        copy.setModifiedDate(stock.getModifiedDate());
+        return copy;
+    }
+}
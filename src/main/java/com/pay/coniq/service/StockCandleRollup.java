@@ -0,0 +1,284 @@
+package com.pay.coniq.service;
+
+import com.pay.coniq.domain.StockCandle;
+import com.pay.coniq.domain.StockCandleId;
+import com.pay.coniq.repository.StockCandleRepository;
+import com.pay.coniq.repository.StockHistoryRepository;
+import com.pay.coniq.service.dto.CandleInterval;
+import com.pay.coniq.service.event.StockChangedEvent;
+import com.pay.coniq.service.event.StockChangesEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * keeps the {@link StockCandle} rollup of every {@link CandleInterval} up to date. The price changes of a
+ * transaction are rolled up in memory and merged into the table in one batch after it commits, the merge
+ * is order independent so concurrent commits of the same bucket are consistent. The candles of a merge which
+ * fails are queued, merged per stock and bucket, and retried every store.candles.retry-interval milliseconds.
+ * At most store.candles.max-failed buckets are queued, the candles of further buckets are dropped and counted in
+ * store.candles.dropped, the next rebuild recomputes them from the audit trail.
+ * {@link #rebuild(long, long)} recomputes closed buckets from the audit trail and replaces them, one stock per
+ * transaction, on store.candles.backfill-cron for the last store.candles.backfill-window or on demand
+ */
+@Component
+public class StockCandleRollup {
+
+    private final Logger log = LoggerFactory.getLogger(StockCandleRollup.class);
+
+    private final StockCandleRepository stockCandleRepository;
+
+    private final StockHistoryRepository stockHistoryRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final TransactionTemplate newTransactionTemplate;
+
+    private final int batchSize;
+
+    private final Duration settle;
+
+    private final Duration backfillWindow;
+
+    private final int maxFailed;
+
+    /**
+     * candles of merges which failed by stock and bucket, oldest first, guarded by this
+     */
+    private final Map<StockCandleId, StockCandle> failed = new LinkedHashMap<>();
+
+    private final Counter dropped;
+
+    public StockCandleRollup(StockCandleRepository stockCandleRepository, StockHistoryRepository stockHistoryRepository,
+                             PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+                             @Value("${store.stock.batch-size:500}") int batchSize,
+                             @Value("${store.candles.settle:5m}") Duration settle,
+                             @Value("${store.candles.backfill-window:2d}") Duration backfillWindow,
+                             @Value("${store.candles.max-failed:100000}") int maxFailed) {
+        this.stockCandleRepository = stockCandleRepository;
+        this.stockHistoryRepository = stockHistoryRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.newTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.newTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.batchSize = batchSize;
+        this.settle = settle;
+        this.backfillWindow = backfillWindow;
+        this.maxFailed = maxFailed;
+        Gauge.builder("store.candles.failed", this, StockCandleRollup::getFailedCount)
+                .description("candle buckets waiting to be retried")
+                .register(meterRegistry);
+        this.dropped = meterRegistry.counter("store.candles.dropped");
+    }
+
+    @EventListener
+    public void onStockChanged(StockChangesEvent event) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            PendingCandles candles = new PendingCandles();
+            event.getChanges().forEach(candles::add);
+            if (candles.size() > 0) {
+                merge(candles);
+            }
+            return;
+        }
+        PendingCandles candles = (PendingCandles) TransactionSynchronizationManager.getResource(this);
+        if (candles == null) {
+            candles = new PendingCandles();
+            TransactionSynchronizationManager.bindResource(this, candles);
+            TransactionSynchronizationManager.registerSynchronization(candles);
+        }
+        event.getChanges().forEach(candles::add);
+    }
+
+    /**
+     * merges the candles queued after a failure again in batches, those which fail once more are queued again
+     */
+    @Scheduled(fixedDelayString = "${store.candles.retry-interval:10000}")
+    public void retryFailed() {
+        List<StockCandle> retry;
+        synchronized (this) {
+            retry = new ArrayList<>(failed.values());
+            failed.clear();
+        }
+        for (int from = 0; from < retry.size(); from += batchSize) {
+            List<StockCandle> batch = retry.subList(from, Math.min(from + batchSize, retry.size()));
+            if (!tryMerge(batch)) {
+                queue(batch);
+            }
+        }
+    }
+
+    public synchronized int getFailedCount() {
+        return failed.size();
+    }
+
+    /**
+     * rebuilds the last store.candles.backfill-window up to store.candles.settle ago
+     */
+    @Scheduled(cron = "${store.candles.backfill-cron:-}")
+    public long rebuild() {
+        long to = System.currentTimeMillis() - settle.toMillis();
+        return rebuild(to - backfillWindow.toMillis(), to);
+    }
+
+    /**
+     * recomputes every candle of a bucket within [from, to) from the audit trail and replaces it, from is rounded
+     * down to a day so every interval starts on a bucket boundary. buckets which are still open at to are left to
+     * the live merges, so a merge can neither race with the rebuild nor be counted twice; to must lie far enough
+     * in the past that every change before it has committed and been merged (store.candles.settle). every stock is
+     * rebuilt in its own transaction and queued merges of the rebuilt buckets are dropped. returns the prices read
+     */
+    public long rebuild(long from, long to) {
+        long start = CandleInterval.ONE_DAY.bucketStart(from);
+        log.info("Rebuilding stock candles from {} to {}", Instant.ofEpochMilli(start), Instant.ofEpochMilli(to));
+        synchronized (this) {
+            failed.keySet().removeIf(id -> id.getBucketStart() >= start
+                    && id.getBucketStart() < CandleInterval.of(id.getBucketInterval()).bucketStart(to));
+        }
+        int fromRev = stockHistoryRepository.findFirstRevision(Instant.ofEpochMilli(start));
+        int toRev = stockHistoryRepository.findFirstRevision(Instant.ofEpochMilli(to));
+        long prices = 0;
+        for (Long stockId : stockHistoryRepository.findChangedIds(fromRev, toRev)) {
+            prices += transactionTemplate.execute(status -> rebuild(stockId, fromRev, toRev, start, to));
+        }
+        log.info("Rebuilt stock candles from {} prices", prices);
+        return prices;
+    }
+
+    private long rebuild(Long stockId, int fromRev, int toRev, long from, long to) {
+        for (CandleInterval interval : CandleInterval.values()) {
+            stockCandleRepository.delete(stockId, interval.getCode(), from, interval.bucketStart(to));
+        }
+        long[] prices = new long[1];
+        Map<CandleInterval, StockCandle> open = new EnumMap<>(CandleInterval.class);
+        List<StockCandle> batch = new ArrayList<>(batchSize);
+        stockHistoryRepository.streamPrices(stockId, fromRev, toRev, rs -> {
+            long timestamp = rs.getLong(1);
+            BigDecimal price = rs.getBigDecimal(2);
+            prices[0]++;
+            for (CandleInterval interval : CandleInterval.values()) {
+                StockCandleId id = new StockCandleId(stockId, interval.getCode(), interval.bucketStart(timestamp));
+                if (id.getBucketStart() < from || id.getBucketStart() >= interval.bucketStart(to)) {
+                    continue;
+                }
+                StockCandle candle = open.get(interval);
+                if (candle != null && candle.getId().equals(id)) {
+                    candle.add(price, timestamp);
+                    continue;
+                }
+                if (candle != null) {
+                    batch.add(candle);
+                }
+                open.put(interval, StockCandle.of(id, price, timestamp));
+            }
+            if (batch.size() >= batchSize) {
+                stockCandleRepository.merge(new ArrayList<>(batch));
+                batch.clear();
+            }
+        });
+        batch.addAll(open.values());
+        stockCandleRepository.merge(batch);
+        return prices[0];
+    }
+
+    private void merge(PendingCandles candles) {
+        List<StockCandle> batch = candles.toList();
+        if (!tryMerge(batch)) {
+            queue(batch);
+        }
+    }
+
+    private boolean tryMerge(List<StockCandle> candles) {
+        try {
+            newTransactionTemplate.executeWithoutResult(status -> stockCandleRepository.merge(candles));
+            return true;
+        } catch (RuntimeException e) {
+            log.error("Could not merge {} stock candles, retrying", candles.size(), e);
+            return false;
+        }
+    }
+
+    /**
+     * queues failed candles for the retry, merged into a queued candle of the same bucket,
+     * dropped when the bucket is new and store.candles.max-failed buckets are queued
+     */
+    private synchronized void queue(List<StockCandle> candles) {
+        int drops = 0;
+        for (StockCandle candle : candles) {
+            StockCandle queued = failed.get(candle.getId());
+            if (queued != null) {
+                queued.merge(candle);
+            } else if (failed.size() < maxFailed) {
+                failed.put(candle.getId(), candle);
+            } else {
+                drops++;
+            }
+        }
+        if (drops > 0) {
+            log.warn("Dropped {} failed stock candles, {} are queued already", drops, maxFailed);
+            dropped.increment(drops);
+        }
+    }
+
+    /**
+     * the candles of one transaction, one per stock and bucket
+     */
+    private class PendingCandles implements TransactionSynchronization {
+
+        private final Map<StockCandleId, StockCandle> candles = new LinkedHashMap<>();
+
+        /**
+         * ignores changes without a price (deletes)
+         */
+        void add(StockChangedEvent event) {
+            if (event.getStock() == null || event.getStock().getCurrentPrice() == null) {
+                return;
+            }
+            BigDecimal price = event.getStock().getCurrentPrice();
+            for (CandleInterval interval : CandleInterval.values()) {
+                StockCandleId id = new StockCandleId(event.getId(), interval.getCode(), interval.bucketStart(event.getTimestamp()));
+                StockCandle candle = candles.get(id);
+                if (candle == null) {
+                    candles.put(id, StockCandle.of(id, price, event.getTimestamp()));
+                } else {
+                    candle.add(price, event.getTimestamp());
+                }
+            }
+        }
+
+        List<StockCandle> toList() {
+            return new ArrayList<>(candles.values());
+        }
+
+        int size() {
+            return candles.size();
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(StockCandleRollup.this);
+            if (status == STATUS_COMMITTED && !candles.isEmpty()) {
+                merge(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.pay.coniq.service;
+
+import com.pay.coniq.config.ReplicaDataSourceProperties;
+import com.pay.coniq.service.event.StockChangesEvent;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.sql.Timestamp;
+
+/**
+ * table level validator of stocks, used as the ETag of list pages so that unchanged pages are answered with 304
+ * without running the query. it is read from the primary database, the row count and the latest modified_date
+ * (indexed), so changes made through any instance are seen: a create or update raises the modified date and a
+ * delete lowers the count. a change within the resolution of modified_date of the latest one is not told apart.
+ * with read replicas a list read right after a change may still see the old rows, there is no ETag until
+ * store.datasource.max-replica-lag has passed since the latest modified date or a delete through this instance,
+ * so a stale page is never validated by the new one
+ */
+@Component
+public class StockChangeTracker {
+
+    private static final String STATE_SQL = "select count(*), max(modified_date) from stock";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final long replicaLagMillis;
+
+    private volatile long changedAt;
+
+    public StockChangeTracker(JdbcTemplate jdbcTemplate, ObjectProvider<ReplicaDataSourceProperties> replicaProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        ReplicaDataSourceProperties replicas = replicaProperties.getIfAvailable();
+        this.replicaLagMillis = replicas == null ? 0 : replicas.getMaxReplicaLag().toMillis();
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onStockChanged(StockChangesEvent event) {
+        changedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * strong ETag of the current state of the stock table, read it before running the query it describes.
+     * null while the replicas may still lag behind the last change
+     */
+    public String getETag() {
+        long now = System.currentTimeMillis();
+        if (now - changedAt < replicaLagMillis) {
+            return null;
+        }
+        return jdbcTemplate.queryForObject(STATE_SQL, (rs, rowNum) -> {
+            long count = rs.getLong(1);
+            Timestamp modifiedDate = rs.getTimestamp(2);
+            long modifiedAt = modifiedDate == null ? 0 : modifiedDate.getTime();
+            if (now - modifiedAt < replicaLagMillis) {
+                return null;
+            }
+            return "\"" + count + "-" + Long.toString(modifiedAt, 36) + "\"";
+        });
+    }
+}
@@ -0,0 +1,110 @@
+package com.pay.coniq.service;
+
+import com.pay.coniq.repository.StockCandleRepository;
+import com.pay.coniq.repository.StockHistoryRepository;
+import com.pay.coniq.service.dto.CandleDTO;
+import com.pay.coniq.service.dto.CandleInterval;
+import com.pay.coniq.service.dto.StockChangeDTO;
+import com.pay.coniq.service.dto.StockPriceHistoryDTO;
+import com.pay.coniq.web.rest.errors.BadRequestAlertException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Service Implementation for the price history of {@link com.pay.coniq.domain.Stock}, read from the audit trail
+ * and the candle rollup
+ */
+@Service
+@Transactional(readOnly = true)
+public class StockHistoryService {
+
+    private static final String ENTITY_NAME = "Stock";
+
+    /**
+     * candles returned when no start is given
+     */
+    public static final int DEFAULT_CANDLES = 100;
+
+    public static final int MAX_CANDLES = 1000;
+
+    private final Logger log = LoggerFactory.getLogger(StockHistoryService.class);
+
+    private final StockHistoryRepository stockHistoryRepository;
+
+    private final StockCandleRepository stockCandleRepository;
+
+    private final Duration changesSettle;
+
+    public StockHistoryService(StockHistoryRepository stockHistoryRepository, StockCandleRepository stockCandleRepository,
+                               @Value("${store.changes.settle:1s}") Duration changesSettle) {
+        this.stockHistoryRepository = stockHistoryRepository;
+        this.stockCandleRepository = stockCandleRepository;
+        this.changesSettle = changesSettle;
+    }
+
+    /**
+     * revisions of the stock in [from, to) after the given revision, oldest first
+     */
+    public Slice<StockPriceHistoryDTO> findHistory(Long id, Instant from, Instant to, Integer afterRev, int size) {
+        log.debug("Request to get history of Stock : {} from {} to {} after {}", id, from, to, afterRev);
+        int fromRev = from == null ? 0 : stockHistoryRepository.findFirstRevision(from);
+        if (afterRev != null) {
+            fromRev = Math.max(fromRev, afterRev + 1);
+        }
+        int toRev = to == null ? Integer.MAX_VALUE : stockHistoryRepository.findFirstRevision(to);
+        if (fromRev >= toRev) {
+            return new SliceImpl<>(Collections.emptyList(), PageRequest.of(0, size), false);
+        }
+        List<StockPriceHistoryDTO> history = stockHistoryRepository.findHistory(id, fromRev, toRev, size + 1);
+        boolean hasNext = history.size() > size;
+        return new SliceImpl<>(hasNext ? history.subList(0, size) : history, PageRequest.of(0, size), hasNext);
+    }
+
+    /**
+     * sync cursor to continue after the given one, the last revision older than store.changes.settle.
+     * revision numbers are taken before commit, so a younger revision may still be followed by a smaller
+     * one committing late. changes after the cursor are delivered again instead of being skipped
+     */
+    public int findChangesCursor(int since) {
+        int settled = stockHistoryRepository.findFirstRevision(Instant.now().minus(changesSettle));
+        int cursor = settled == Integer.MAX_VALUE ? stockHistoryRepository.findLastRevision() : settled - 1;
+        return Math.max(since, cursor);
+    }
+
+    /**
+     * latest state of every stock changed after the cursor, oldest change first, deleted stocks as tombstones
+     */
+    public void streamChanges(int since, Consumer<StockChangeDTO> consumer) {
+        log.debug("Request to get Stock changes since {}", since);
+        stockHistoryRepository.streamChanges(since, consumer);
+    }
+
+    /**
+     * candles of the stock starting in [from, to), to defaults to now and from to {@link #DEFAULT_CANDLES} intervals before it.
+     * read from the rollup maintained by {@link StockCandleRollup}, buckets without a price change are left out
+     */
+    public List<CandleDTO> findCandles(Long id, CandleInterval interval, Instant from, Instant to) {
+        log.debug("Request to get {} candles of Stock : {} from {} to {}", interval.getCode(), id, from, to);
+        Instant end = to == null ? Instant.now() : to;
+        Instant start = from == null ? end.minusMillis(interval.getMillis() * DEFAULT_CANDLES) : from;
+        if (!start.isBefore(end)) {
+            return Collections.emptyList();
+        }
+        if ((end.toEpochMilli() - start.toEpochMilli()) / interval.getMillis() >= MAX_CANDLES) {
+            throw new BadRequestAlertException("Too many candles, at most " + MAX_CANDLES, ENTITY_NAME, "candlerangetoolarge");
+        }
+        return stockCandleRepository.findCandles(id, interval.getCode(), interval.bucketStart(start.toEpochMilli()), end.toEpochMilli());
+    }
+}
@@ -0,0 +1,187 @@
+package com.pay.coniq.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pay.coniq.service.dto.StockDTO;
+import com.pay.coniq.service.dto.StockImportResultDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+
+import javax.persistence.PersistenceException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * imports stocks from CSV or NDJSON, one line at a time.
+ * lines are upserted by name in fixed size batches, every batch is its own transaction
+ * (see {@link StockService#upsertByName(List)}), so memory stays flat and a broken line
+ * or a rejected batch never aborts the rest of the input. a batch the database rejects is retried one line
+ * per transaction, so its valid lines are still imported and every rejected line is reported with its number.
+ * CSV input needs a header line with at least the name and currentPrice columns, other columns are ignored
+ */
+@Service
+public class StockImportService {
+
+    public static final String NDJSON = "ndjson";
+    public static final String CSV = "csv";
+
+    private static final int MAX_REPORTED_ERRORS = 100;
+
+    private final Logger log = LoggerFactory.getLogger(StockImportService.class);
+
+    private final StockService stockService;
+
+    private final ObjectMapper objectMapper;
+
+    private final int batchSize;
+
+    public StockImportService(StockService stockService, ObjectMapper objectMapper,
+                              @Value("${store.stock.batch-size:500}") int batchSize) {
+        this.stockService = stockService;
+        this.objectMapper = objectMapper;
+        this.batchSize = batchSize;
+    }
+
+    public StockImportResultDTO importStocks(Reader input, String format) throws IOException {
+        log.debug("Request to import Stocks as {}", format);
+        long start = System.nanoTime();
+        boolean csv = CSV.equals(format);
+        StockImportResultDTO result = new StockImportResultDTO();
+        BufferedReader reader = new BufferedReader(input);
+        int nameColumn = -1;
+        int priceColumn = -1;
+        List<StockDTO> batch = new ArrayList<>(batchSize);
+        List<Long> batchLines = new ArrayList<>(batchSize);
+        long lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            if (csv && nameColumn < 0) {
+                List<String> header = splitCsv(line);
+                nameColumn = header.indexOf("name");
+                priceColumn = header.indexOf("currentPrice");
+                if (nameColumn < 0 || priceColumn < 0) {
+                    addError(result, lineNumber, "CSV header must contain name and currentPrice");
+                    break;
+                }
+                continue;
+            }
+            result.setLines(result.getLines() + 1);
+            try {
+                batch.add(csv ? parseCsv(line, nameColumn, priceColumn) : parseNdjson(line));
+                batchLines.add(lineNumber);
+            } catch (IOException | RuntimeException e) {
+                addError(result, lineNumber, e.getMessage());
+            }
+            if (batch.size() == batchSize) {
+                flush(batch, batchLines, result);
+            }
+        }
+        flush(batch, batchLines, result);
+        long elapsedNanos = System.nanoTime() - start;
+        result.setElapsedMillis(elapsedNanos / 1_000_000);
+        result.setRowsPerSecond(elapsedNanos == 0 ? 0 : result.getLines() / (elapsedNanos / 1_000_000_000d));
+        return result;
+    }
+
+    private void flush(List<StockDTO> batch, List<Long> batchLines, StockImportResultDTO result) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            add(result, stockService.upsertByName(batch));
+        } catch (DataAccessException | PersistenceException e) {
+            log.warn("Stock import batch starting at line {} rejected, retrying line by line : {}", batchLines.get(0),
+                    NestedExceptionUtils.getMostSpecificCause(e).getMessage());
+            for (int i = 0; i < batch.size(); i++) {
+                try {
+                    add(result, stockService.upsertByName(List.of(batch.get(i))));
+                } catch (DataAccessException | PersistenceException lineException) {
+                    addError(result, batchLines.get(i), "rejected: " + NestedExceptionUtils.getMostSpecificCause(lineException).getMessage());
+                }
+            }
+        }
+        batch.clear();
+        batchLines.clear();
+    }
+
+    private static void add(StockImportResultDTO result, StockImportResultDTO batchResult) {
+        result.setCreated(result.getCreated() + batchResult.getCreated());
+        result.setUpdated(result.getUpdated() + batchResult.getUpdated());
+    }
+
+    private StockDTO parseNdjson(String line) throws IOException {
+        return validate(objectMapper.readValue(line, StockDTO.class));
+    }
+
+    private StockDTO parseCsv(String line, int nameColumn, int priceColumn) {
+        List<String> values = splitCsv(line);
+        if (values.size() <= Math.max(nameColumn, priceColumn)) {
+            throw new IllegalArgumentException("expected at least " + (Math.max(nameColumn, priceColumn) + 1) + " columns");
+        }
+        String price = values.get(priceColumn);
+        return validate(new StockDTO()
+                .name(values.get(nameColumn))
+                .currentPrice(price.isEmpty() ? null : new BigDecimal(price)));
+    }
+
+    private static StockDTO validate(StockDTO stock) {
+        if (stock.getName() == null || stock.getName().isEmpty()) {
+            throw new IllegalArgumentException("name is required");
+        }
+        if (stock.getCurrentPrice() == null) {
+            throw new IllegalArgumentException("currentPrice is required");
+        }
+        stock.setId(null);
+        stock.setVersion(null);
+        return stock;
+    }
+
+    /**
+     * splits one RFC 4180 line, quoted values may contain commas and doubled quotes but no line breaks
+     */
+    static List<String> splitCsv(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    private static void addError(StockImportResultDTO result, long line, String message) {
+        result.setErrorCount(result.getErrorCount() + 1);
+        if (result.getErrors().size() < MAX_REPORTED_ERRORS) {
+            result.getErrors().add(new StockImportResultDTO.LineError(line, message));
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.pay.coniq.service;
+
+import com.pay.coniq.repository.StockRepository;
+import com.pay.coniq.service.dto.StockNameDTO;
+import com.pay.coniq.service.event.StockChangedEvent;
+import com.pay.coniq.service.event.StockChangesEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * in-memory sorted index of stock names for prefix search, case insensitive.
+ * a skip list gives O(log n) lookups of the first match and lock free reads while creates, renames
+ * and deletes are applied after they commit. loaded once every bean, including the sql initializer, is ready,
+ * and reloaded from the primary every store.names.reconcile-interval milliseconds to pick up the creates and
+ * deletes of other instances. every change applied here is stamped with a local commit sequence, a reload
+ * leaves the stocks changed after it started alone
+ */
+@Component
+public class StockNameIndex implements SmartInitializingSingleton {
+
+    /**
+     * case insensitive first so a prefix is one contiguous range, names which only differ in case stay apart
+     */
+    private static final Comparator<String> ORDER = String.CASE_INSENSITIVE_ORDER.thenComparing(Comparator.naturalOrder());
+
+    private final Logger log = LoggerFactory.getLogger(StockNameIndex.class);
+
+    private final ConcurrentNavigableMap<String, Long> idsByName = new ConcurrentSkipListMap<>(ORDER);
+
+    private final Map<Long, String> namesById = new ConcurrentHashMap<>();
+
+    private final StockRepository stockRepository;
+
+    /**
+     * read-write so that it runs on the primary, a replica may lag behind the changes applied here
+     */
+    private final TransactionTemplate primaryTransactionTemplate;
+
+    /**
+     * local commit sequence of the latest change applied, guarded by this
+     */
+    private long commitSeq;
+
+    /**
+     * commit sequence of the latest change of every stock changed since the last reload, deletes included,
+     * guarded by this
+     */
+    private final Map<Long, Long> changedAt = new HashMap<>();
+
+    public StockNameIndex(StockRepository stockRepository, PlatformTransactionManager transactionManager) {
+        this.stockRepository = stockRepository;
+        this.primaryTransactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        reconcile();
+        log.info("Indexed {} stock names", namesById.size());
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public synchronized void onStockChanged(StockChangesEvent event) {
+        long seq = ++commitSeq;
+        for (StockChangedEvent change : event.getChanges()) {
+            if (change.getType() == StockChangedEvent.Type.DELETED) {
+                changedAt.put(change.getId(), seq);
+                remove(change.getId());
+            } else if (change.getName() != null) {
+                changedAt.put(change.getId(), seq);
+                put(change.getId(), change.getName());
+            }
+        }
+    }
+
+    /**
+     * reloads every name from the primary, adds and renames the stocks created or renamed elsewhere and drops
+     * those deleted elsewhere, except the stocks changed here after the reload started
+     */
+    @Scheduled(initialDelayString = "${store.names.reconcile-interval:60000}", fixedDelayString = "${store.names.reconcile-interval:60000}")
+    public void reconcile() {
+        long loadedAt;
+        synchronized (this) {
+            loadedAt = commitSeq;
+        }
+        List<StockNameDTO> stocks = new ArrayList<>(size());
+        primaryTransactionTemplate.executeWithoutResult(status -> {
+            try (Stream<StockNameDTO> names = stockRepository.streamAllNames()) {
+                names.forEach(stocks::add);
+            }
+        });
+        synchronized (this) {
+            Set<Long> loaded = new HashSet<>(stocks.size() * 2);
+            for (StockNameDTO stock : stocks) {
+                loaded.add(stock.getId());
+                if (changedAt.getOrDefault(stock.getId(), Long.MIN_VALUE) <= loadedAt) {
+                    put(stock.getId(), stock.getName());
+                }
+            }
+            for (Long id : new ArrayList<>(namesById.keySet())) {
+                if (!loaded.contains(id) && changedAt.getOrDefault(id, Long.MIN_VALUE) <= loadedAt) {
+                    remove(id);
+                }
+            }
+            changedAt.values().removeIf(seq -> seq <= loadedAt);
+        }
+    }
+
+    /**
+     * at most limit stocks whose name starts with the prefix ignoring case, in name order
+     */
+    public List<StockNameDTO> search(String prefix, int limit) {
+        List<StockNameDTO> result = new ArrayList<>(Math.min(limit, 16));
+        // upper case sorts first among names which are equal ignoring case
+        for (Map.Entry<String, Long> entry : idsByName.tailMap(prefix.toUpperCase(Locale.ROOT), true).entrySet()) {
+            if (result.size() >= limit || !entry.getKey().regionMatches(true, 0, prefix, 0, prefix.length())) {
+                break;
+            }
+            result.add(new StockNameDTO(entry.getValue(), entry.getKey()));
+        }
+        return result;
+    }
+
+    public int size() {
+        return namesById.size();
+    }
+
+    private void remove(Long id) {
+        String name = namesById.remove(id);
+        if (name != null) {
+            idsByName.remove(name, id);
+        }
+    }
+
+    private void put(Long id, String name) {
+        String previous = namesById.put(id, name);
+        if (previous != null && !previous.equals(name)) {
+            idsByName.remove(previous, id);
+        }
+        idsByName.put(name, id);
+    }
+}
@@ -1,22 +1,49 @@
 package com.pay.coniq.service;
 
 import com.pay.coniq.domain.Stock;
+import com.pay.coniq.repository.StockBatchRepository;
+import com.pay.coniq.repository.StockReadRepository;
 import com.pay.coniq.repository.StockRepository;
+import com.pay.coniq.repository.StockSpecifications;
+import com.pay.coniq.service.dto.StockCriteria;
+import com.pay.coniq.service.dto.StockCursor;
 import com.pay.coniq.service.dto.StockDTO;
+import com.pay.coniq.service.dto.StockImportResultDTO;
+import com.pay.coniq.service.dto.StockPriceDTO;
+import com.pay.coniq.service.dto.StockPriceUpdateResultDTO;
+import com.pay.coniq.service.event.StockChangedEvent;
+import com.pay.coniq.service.event.StockChangesEvent;
 import com.pay.coniq.service.mapper.StockMapper;
 import com.pay.coniq.web.rest.errors.BadRequestAlertException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.persistence.EntityManager;
 import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @Transactional
@@ -26,13 +53,34 @@ public class StockService {
 
     private final StockRepository stockRepository;
 
+    private final StockBatchRepository stockBatchRepository;
+
+    private final StockReadRepository stockReadRepository;
+
     private final StockMapper stockMapper;
+
+    private final EntityManager em;
+
+    private final StockCache stockCache;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final boolean fastPriceUpdate;
     private static final String ENTITY_NAME = "Stock";
 
 
-    public StockService(StockRepository stockRepository, StockMapper stockMapper) {
+    public StockService(StockRepository stockRepository, StockBatchRepository stockBatchRepository,
+                        StockReadRepository stockReadRepository, StockMapper stockMapper,
+                        EntityManager em, StockCache stockCache, ApplicationEventPublisher eventPublisher,
+                        @Value("${store.stock.fast-price-update:false}") boolean fastPriceUpdate) {
         this.stockRepository = stockRepository;
+        this.stockBatchRepository = stockBatchRepository;
+        this.stockReadRepository = stockReadRepository;
         this.stockMapper = stockMapper;
+        this.em = em;
+        this.stockCache = stockCache;
+        this.eventPublisher = eventPublisher;
+        this.fastPriceUpdate = fastPriceUpdate;
     }
 
 
@@ -45,18 +93,98 @@ public class StockService {
         Stock stock = stockMapper.toEntity(stockDTO);
         stock = stockRepository.save(stock);
         StockDTO result = stockMapper.toDto(stock);
+        publish(stockDTO.getId() == null ? StockChangedEvent.created(result) : StockChangedEvent.updated(result));
+        return result;
+    }
+    /**
+     * saving many new stocks in one transaction, inserts go out as JDBC batches and
+     * the persistence context is flushed and cleared after every batch.
+     * fails as a whole when a name is duplicated or already exists
+     * see also {@link StockDTO}
+     */
+    public List<StockDTO> saveAll(List<StockDTO> stockDTOs) {
+        log.debug("Request to save {} Stocks", stockDTOs.size());
+        Set<String> names = new HashSet<>(stockDTOs.size());
+        for (StockDTO stockDTO : stockDTOs) {
+            if (!names.add(stockDTO.getName())) {
+                throw new BadRequestAlertException("Duplicate name " + stockDTO.getName(), ENTITY_NAME, "nameexists");
+            }
+        }
+        int batchSize = stockBatchRepository.getBatchSize();
+        List<String> nameList = new ArrayList<>(names);
+        for (int from = 0; from < nameList.size(); from += batchSize) {
+            List<String> existing = stockRepository.findExistingNames(nameList.subList(from, Math.min(from + batchSize, nameList.size())));
+            if (!existing.isEmpty()) {
+                throw new BadRequestAlertException("Name already exists " + existing.get(0), ENTITY_NAME, "nameexists");
+            }
+        }
+        List<StockDTO> result = new ArrayList<>(stockDTOs.size());
+        for (int from = 0; from < stockDTOs.size(); from += batchSize) {
+            List<Stock> batch = stockMapper.toEntity(stockDTOs.subList(from, Math.min(from + batchSize, stockDTOs.size())));
+            result.addAll(stockMapper.toDto(stockRepository.saveAll(batch)));
+            em.flush();
+            em.clear();
+        }
+        publish(result.stream().map(StockChangedEvent::created).collect(Collectors.toList()));
+        return result;
+    }
+
+    /**
+     * creating or updating the price of a batch of stocks matched by their unique name,
+     * in its own transaction. when a name occurs more than once the last price wins.
+     * only created and updated are filled in the returned result
+     * see also {@link StockImportService}
+     */
+    public StockImportResultDTO upsertByName(List<StockDTO> stockDTOs) {
+        log.debug("Request to upsert {} Stocks", stockDTOs.size());
+        Map<String, StockDTO> byName = new LinkedHashMap<>(stockDTOs.size());
+        stockDTOs.forEach(stockDTO -> byName.put(stockDTO.getName(), stockDTO));
+        List<Stock> updated = new ArrayList<>();
+        for (Stock stock : stockRepository.findAllByNameIn(byName.keySet())) {
+            BigDecimal currentPrice = byName.remove(stock.getName()).getCurrentPrice();
+            if (stock.getCurrentPrice().compareTo(currentPrice) != 0) {
+                stock.setCurrentPrice(currentPrice);
+                updated.add(stock);
+            }
+        }
+        List<Stock> created = stockRepository.saveAll(stockMapper.toEntity(new ArrayList<>(byName.values())));
+        em.flush();
+        List<StockChangedEvent> changes = new ArrayList<>(updated.size() + created.size());
+        updated.forEach(stock -> changes.add(StockChangedEvent.updated(stockMapper.toDto(stock))));
+        created.forEach(stock -> changes.add(StockChangedEvent.created(stockMapper.toDto(stock))));
+        publish(changes);
+        em.clear();
+        StockImportResultDTO result = new StockImportResultDTO();
+        result.setCreated(created.size());
+        result.setUpdated(updated.size());
         return result;
     }
+
     /**
      * update stock
      * see also {@link StockDTO}
      */
     public StockDTO save(Long id, BigDecimal currentPrice) {
+        return save(id, currentPrice, null);
+    }
+
+    /**
+     * update stock if it still has one of the expected versions, any version when they are null.
+     * throws {@link OptimisticLockingFailureException} when another writer changed it first
+     * see also {@link StockDTO}
+     */
+    public StockDTO save(Long id, BigDecimal currentPrice, Set<Long> expectedVersions) {
         log.debug("Request to update Stock : ", id,currentPrice);
+        if (fastPriceUpdate) {
+            return updatePrice(id, currentPrice, expectedVersions);
+        }
         Optional<Stock> stockOptional = stockRepository.findById(id);
         Stock stock ;
         if (stockOptional.isPresent()) {
             stock=stockOptional.get();
+            if (expectedVersions != null && !expectedVersions.contains(stock.getVersion())) {
+                throw conflict(id);
+            }
             stock.setCurrentPrice(currentPrice);
 
         }else {
@@ -64,26 +192,161 @@ public class StockService {
         }
         stock = stockRepository.save(stock);
         StockDTO result = stockMapper.toDto(stock);
+        publish(StockChangedEvent.updated(result));
         return result;
     }
-        /**
-         * getting all stocks converted to StockDTO
-         * see also {@link StockDTO}
-         */
+
+    /**
+     * update stock price with a single UPDATE statement instead of load and dirty check,
+     * the expected versions are part of its where clause. the new row is read back by primary key
+     * only when the update hit a row, a missed row is looked up to tell a conflict from an unknown id.
+     * the audit revision is written explicitly because envers does not see bulk updates
+     * see also {@link StockBatchRepository}
+     */
+    private StockDTO updatePrice(Long id, BigDecimal currentPrice, Set<Long> expectedVersions) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        int updated = expectedVersions == null
+                ? stockRepository.updateCurrentPrice(id, currentPrice, now)
+                : stockRepository.updateCurrentPrice(id, currentPrice, now, expectedVersions);
+        if (updated == 0) {
+            if (expectedVersions != null && stockRepository.existsById(id)) {
+                throw conflict(id);
+            }
+            throw new BadRequestAlertException("Invalid id", ENTITY_NAME, id.toString());
+        }
+        Stock stock = stockRepository.findById(id)
+                .orElseThrow(() -> new BadRequestAlertException("Invalid id", ENTITY_NAME, id.toString()));
+        stockBatchRepository.auditUpdate(stock);
+        StockDTO result = stockMapper.toDto(stock);
+        publish(StockChangedEvent.updated(result));
+        return result;
+    }
+
+    /**
+     * update the price of many stocks in one transaction using batched statements,
+     * when an id occurs more than once the last price wins.
+     * ids which do not exist are reported as failed
+     * see also {@link StockPriceDTO}
+     */
+    public StockPriceUpdateResultDTO updatePrices(List<StockPriceDTO> prices) {
+        log.debug("Request to update prices of {} Stocks", prices.size());
+        Map<Long, BigDecimal> requested = new LinkedHashMap<>();
+        for (StockPriceDTO price : prices) {
+            if (price.getId() == null || price.getCurrentPrice() == null) {
+                throw new BadRequestAlertException("Invalid price update", ENTITY_NAME, "priceupdateinvalid");
+            }
+            requested.put(price.getId(), price.getCurrentPrice());
+        }
+        Set<Long> existing = new HashSet<>(requested.size());
+        List<Long> ids = new ArrayList<>(requested.keySet());
+        int batchSize = stockBatchRepository.getBatchSize();
+        for (int from = 0; from < ids.size(); from += batchSize) {
+            existing.addAll(stockRepository.findExistingIds(ids.subList(from, Math.min(from + batchSize, ids.size()))));
+        }
+        StockPriceUpdateResultDTO result = new StockPriceUpdateResultDTO();
+        Map<Long, BigDecimal> updates = new LinkedHashMap<>(existing.size());
+        requested.forEach((id, currentPrice) -> {
+            if (existing.contains(id)) {
+                updates.put(id, currentPrice);
+                result.getUpdated().add(id);
+            } else {
+                result.getFailed().add(id);
+            }
+        });
+        stockBatchRepository.updatePrices(updates);
+        List<StockChangedEvent> changes = new ArrayList<>(updates.size());
+        updates.forEach((id, currentPrice) -> {
+            StockDTO stockDTO = new StockDTO().currentPrice(currentPrice);
+            stockDTO.setId(id);
+            changes.add(StockChangedEvent.priceUpdated(stockDTO));
+        });
+        publish(changes);
+        return result;
+    }
+    /**
+     * getting the page of stocks matching the criteria, only the given fields are read
+     * and no entity is loaded
+     * see also {@link StockSpecifications} and {@link StockReadRepository}
+     */
     @Transactional(readOnly = true)
-    public Page<StockDTO> findAll(Pageable pageable) {
-        log.debug("Request to get all Stocks");
-        return stockRepository.findAll(pageable).map(stockMapper::toDto);
+    public Page<StockDTO> findAll(StockCriteria criteria, Pageable pageable, Set<String> fields) {
+        log.debug("Request to get Stocks matching : {}", criteria);
+        return stockReadRepository.findPage(StockSpecifications.matching(criteria), pageable, checkFields(fields));
     }
 
     /**
-     * finding stock base on stock id
+     * keyset page of the stocks matching the criteria, the cursor is added as one more
+     * predicate and one extra row is read instead of counting. only the given fields are read
+     * see also {@link StockSpecifications} and {@link StockReadRepository}
      */
     @Transactional(readOnly = true)
+    public Slice<StockDTO> findAllAfter(StockCursor cursor, StockCriteria criteria, int size, Set<String> fields) {
+        log.debug("Request to get Stocks matching : {} after : {}", criteria, cursor);
+        Specification<Stock> spec = StockSpecifications.matching(criteria);
+        if (!cursor.isStart()) {
+            spec = spec.and(StockCursor.SORT_NAME.equals(cursor.getSort())
+                    ? StockSpecifications.nameGreaterThan(cursor.getKey())
+                    : StockSpecifications.idGreaterThan(cursor.getIdKey()));
+        }
+        return stockReadRepository.findSlice(spec, Sort.by(cursor.getSort()), size, checkFields(fields));
+    }
+
+    /**
+     * every field when none is given
+     */
+    private Set<String> checkFields(Set<String> fields) {
+        if (fields == null || fields.isEmpty()) {
+            return StockReadRepository.FIELDS;
+        }
+        if (!StockReadRepository.FIELDS.containsAll(fields)) {
+            throw new BadRequestAlertException("Invalid fields, allowed are " + StockReadRepository.FIELDS, ENTITY_NAME, "fieldsinvalid");
+        }
+        return fields;
+    }
+
+    /**
+     * streaming every stock in id order to the consumer with constant memory,
+     * each entity is detached as soon as it has been mapped
+     * see also {@link StockRepository#streamAll()}
+     */
+    @Transactional(readOnly = true)
+    public void exportAll(Consumer<StockDTO> consumer) {
+        log.debug("Request to export all Stocks");
+        try (Stream<Stock> stocks = stockRepository.streamAll()) {
+            stocks.forEach(stock -> {
+                consumer.accept(stockMapper.toDto(stock));
+                em.detach(stock);
+            });
+        }
+    }
+
+    /**
+     * finding stock base on stock id, served from {@link StockCache} when possible.
+     * does not start a transaction itself so a cache hit never touches the database,
+     * a miss is read straight into the dto without loading the entity.
+     * not read-only, so a miss is loaded from the primary and never caches a row of a lagging replica,
+     * called inside a read-only transaction the cache is bypassed
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
     public Optional<StockDTO> findOne(Long id) {
         log.debug("Request to get Stock : {}", id);
-        return stockRepository.findById(id)
-                .map(stockMapper::toDto);
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return stockReadRepository.findOne(StockSpecifications.idEquals(id));
+        }
+        return stockCache.get(id, key -> stockReadRepository.findOne(StockSpecifications.idEquals(key)));
+    }
+
+    /**
+     * finding stock base on its unique name, served from {@link StockCache} when possible,
+     * loaded from the primary like {@link #findOne(Long)}
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Optional<StockDTO> findOneByName(String name) {
+        log.debug("Request to get Stock by name : {}", name);
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return stockReadRepository.findOne(StockSpecifications.nameEquals(name));
+        }
+        return stockCache.getByName(name, key -> stockReadRepository.findOne(StockSpecifications.nameEquals(key)));
     }
 
     /**
@@ -91,9 +354,26 @@ public class StockService {
      */
     public void delete(Long id) {
         log.debug("Request to delete Stock : {}", id);
+        Optional<Stock> stock = stockRepository.findById(id);
+        // loads from the persistence context, throws like before when the id does not exist
         stockRepository.deleteById(id);
+        publish(StockChangedEvent.deleted(id, stock.map(Stock::getName).orElse(null)));
     }
 
+    private void publish(StockChangedEvent change) {
+        eventPublisher.publishEvent(StockChangesEvent.of(change));
+    }
 
-}
+    /**
+     * one event for the whole write, none when nothing changed
+     */
+    private void publish(List<StockChangedEvent> changes) {
+        if (!changes.isEmpty()) {
+            eventPublisher.publishEvent(new StockChangesEvent(changes));
+        }
+    }
 
+    private static OptimisticLockingFailureException conflict(Long id) {
+        return new OptimisticLockingFailureException("Stock " + id + " was modified concurrently");
+    }
+}
@@ -0,0 +1,422 @@
+package com.pay.coniq.service;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.pay.coniq.service.dto.StockDTO;
+import com.pay.coniq.service.event.StockChangedEvent;
+import com.pay.coniq.service.event.StockChangesEvent;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * id, name and price of every stock in memory, kept as columns: ids and prices as primitive arrays, a price as its
+ * unscaled long and scale, and names as their quoted json utf-8 bytes. Loaded once every bean is ready and changed
+ * in place after writes of this instance commit, an update older than the one already applied to a stock is skipped.
+ * Writes of other instances are picked up by {@link #reconcile()} every store.snapshot.reconcile-interval milliseconds,
+ * which reloads every stock from the primary.
+ * {@link #current()} returns the whole universe as one json document of columns,
+ * {@code {"version":7,"ids":[1,2],"names":["p1","p2"],"currentPrices":[1.00,100.00]}}, in no particular order.
+ * The document is built at most once per version, on the first read after a change, every other read only returns
+ * the cached bytes.
+ */
+@Component
+public class StockSnapshot implements SmartInitializingSingleton {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * scale of a price which does not fit an unscaled long, written as null
+     */
+    private static final int NO_PRICE = Integer.MIN_VALUE;
+
+    private static final byte[] VERSION = ascii("{\"version\":");
+    private static final byte[] IDS = ascii(",\"ids\":[");
+    private static final byte[] NAMES = ascii("],\"names\":[");
+    private static final byte[] PRICES = ascii("],\"currentPrices\":[");
+    private static final byte[] END = ascii("]}");
+    private static final byte[] NULL = ascii("null");
+
+    /**
+     * sign, 19 digits and "0." of a long decimal, without the zeros of its scale
+     */
+    private static final int MAX_DECIMAL_LENGTH = 22;
+
+    private final Logger log = LoggerFactory.getLogger(StockSnapshot.class);
+
+    private final StockService stockService;
+
+    /**
+     * read-write, so the connection comes from the primary and not from a replica which may lag behind
+     */
+    private final TransactionTemplate primaryTransactionTemplate;
+
+    private final Timer rebuildTimer;
+
+    /**
+     * versions restart with the application, the ETag tells instances and restarts apart
+     */
+    private final String epoch = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+    // columns, guarded by this
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private byte[][] names = new byte[INITIAL_CAPACITY][];
+    private long[] unscaledPrices = new long[INITIAL_CAPACITY];
+    private int[] priceScales = new int[INITIAL_CAPACITY];
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private int size;
+    private final Map<Long, Integer> slots = new HashMap<>();
+
+    /**
+     * local commit sequence of the latest change applied, guarded by this
+     */
+    private long commitSeq;
+
+    /**
+     * commit sequence of the latest change of every stock changed since the last reload, deletes included,
+     * guarded by this
+     */
+    private final Map<Long, Long> changedAt = new HashMap<>();
+
+    /**
+     * changes applied so far, written under the lock
+     */
+    private volatile long version;
+
+    private volatile Snapshot current;
+
+    public StockSnapshot(StockService stockService, PlatformTransactionManager transactionManager, MeterRegistry meterRegistry) {
+        this.stockService = stockService;
+        this.primaryTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.current = build();
+        Gauge.builder("store.snapshot.size", this, StockSnapshot::size)
+                .description("stocks in the market snapshot")
+                .register(meterRegistry);
+        this.rebuildTimer = Timer.builder("store.snapshot.rebuild")
+                .description("time to serialize the market snapshot after a change")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        reconcile();
+        log.info("Loaded {} stocks into the market snapshot", size());
+    }
+
+    /**
+     * reloads every stock from the primary and applies what differs. the load sees every change this instance applied
+     * before it started, a stock whose change was applied after that, i.e. committed during the load, keeps its
+     * values and a stock missing from the load is only removed when it was not changed after the load started.
+     * the version only moves when something differs
+     */
+    @Scheduled(initialDelayString = "${store.snapshot.reconcile-interval:60000}", fixedDelayString = "${store.snapshot.reconcile-interval:60000}")
+    public void reconcile() {
+        long loadedAt;
+        synchronized (this) {
+            loadedAt = commitSeq;
+        }
+        List<StockDTO> stocks = new ArrayList<>(size());
+        primaryTransactionTemplate.executeWithoutResult(status -> stockService.exportAll(stocks::add));
+        synchronized (this) {
+            boolean changed = false;
+            Set<Long> loaded = new HashSet<>(stocks.size() * 2);
+            for (StockDTO stock : stocks) {
+                loaded.add(stock.getId());
+                if (changedAt.getOrDefault(stock.getId(), Long.MIN_VALUE) <= loadedAt) {
+                    changed |= reconcile(stock);
+                }
+            }
+            // from the end, remove moves the last stock into the freed slot
+            for (int slot = size - 1; slot >= 0; slot--) {
+                if (!loaded.contains(ids[slot]) && changedAt.getOrDefault(ids[slot], Long.MIN_VALUE) <= loadedAt) {
+                    slots.remove(ids[slot]);
+                    remove(slot);
+                    changed = true;
+                }
+            }
+            changedAt.values().removeIf(seq -> seq <= loadedAt);
+            if (changed) {
+                version++;
+            }
+        }
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onStockChanged(StockChangesEvent event) {
+        synchronized (this) {
+            long seq = ++commitSeq;
+            for (StockChangedEvent change : event.getChanges()) {
+                changedAt.put(change.getId(), seq);
+                if (change.getType() == StockChangedEvent.Type.DELETED) {
+                    Integer slot = slots.remove(change.getId());
+                    if (slot != null) {
+                        remove(slot);
+                        version++;
+                    }
+                } else if (change.getStock() != null && change.getStock().getCurrentPrice() != null) {
+                    if (put(change.getId(), change.getName(), change.getStock().getCurrentPrice(), change.getTimestamp())) {
+                        version++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * the snapshot of the latest version, its body must not be modified
+     */
+    public Snapshot current() {
+        Snapshot snapshot = current;
+        if (snapshot.getVersion() == version) {
+            return snapshot;
+        }
+        synchronized (this) {
+            if (current.getVersion() != version) {
+                long start = System.nanoTime();
+                current = build();
+                rebuildTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+            return current;
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * inserts or updates a stock, an update needs the name only for a stock which is not in the snapshot yet
+     */
+    private boolean put(Long id, String name, BigDecimal price, long timestamp) {
+        Integer slot = slots.get(id);
+        if (slot == null) {
+            if (name == null) {
+                return false;
+            }
+            ensureCapacity(size + 1);
+            slot = size++;
+            slots.put(id, slot);
+            ids[slot] = id;
+        } else if (timestamp < timestamps[slot]) {
+            return false;
+        }
+        if (name != null) {
+            names[slot] = quote(name);
+        }
+        setPrice(slot, price);
+        timestamps[slot] = timestamp;
+        return true;
+    }
+
+    /**
+     * applies a reloaded stock, true when anything differed. the slot keeps its timestamp, it only orders the changes
+     * of this instance
+     */
+    private boolean reconcile(StockDTO stock) {
+        Integer slot = slots.get(stock.getId());
+        if (slot == null) {
+            // any change of this instance is newer
+            return put(stock.getId(), stock.getName(), stock.getCurrentPrice(), Long.MIN_VALUE);
+        }
+        byte[] name = quote(stock.getName());
+        boolean changed = false;
+        if (!Arrays.equals(names[slot], name)) {
+            names[slot] = name;
+            changed = true;
+        }
+        if (!hasPrice(slot, stock.getCurrentPrice())) {
+            setPrice(slot, stock.getCurrentPrice());
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * moves the last stock into the freed slot
+     */
+    private void remove(int slot) {
+        int last = --size;
+        if (slot != last) {
+            ids[slot] = ids[last];
+            names[slot] = names[last];
+            unscaledPrices[slot] = unscaledPrices[last];
+            priceScales[slot] = priceScales[last];
+            timestamps[slot] = timestamps[last];
+            slots.put(ids[slot], slot);
+        }
+        names[last] = null;
+    }
+
+    private void setPrice(int slot, BigDecimal price) {
+        if (price.unscaledValue().bitLength() < Long.SIZE) {
+            unscaledPrices[slot] = price.unscaledValue().longValue();
+            priceScales[slot] = price.scale();
+        } else {
+            log.warn("Price {} of stock {} does not fit the market snapshot", price, ids[slot]);
+            priceScales[slot] = NO_PRICE;
+        }
+    }
+
+    /**
+     * equal by value, 12.5 and 12.50 are the same price
+     */
+    private boolean hasPrice(int slot, BigDecimal price) {
+        if (priceScales[slot] == NO_PRICE) {
+            return price.unscaledValue().bitLength() >= Long.SIZE;
+        }
+        return BigDecimal.valueOf(unscaledPrices[slot], priceScales[slot]).compareTo(price) == 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+        int length = Math.max(capacity, ids.length * 2);
+        ids = Arrays.copyOf(ids, length);
+        names = Arrays.copyOf(names, length);
+        unscaledPrices = Arrays.copyOf(unscaledPrices, length);
+        priceScales = Arrays.copyOf(priceScales, length);
+        timestamps = Arrays.copyOf(timestamps, length);
+    }
+
+    private Snapshot build() {
+        long version = this.version;
+        int length = VERSION.length + MAX_DECIMAL_LENGTH + IDS.length + NAMES.length + PRICES.length + END.length;
+        for (int i = 0; i < size; i++) {
+            int priceLength = priceScales[i] == NO_PRICE ? NULL.length : MAX_DECIMAL_LENGTH + Math.abs(priceScales[i]);
+            length += MAX_DECIMAL_LENGTH + 1 + names[i].length + 1 + priceLength + 1;
+        }
+        byte[] body = new byte[length];
+        byte[] scratch = new byte[MAX_DECIMAL_LENGTH];
+        int pos = write(body, 0, VERSION);
+        pos = writeLong(body, pos, version, scratch);
+        pos = write(body, pos, IDS);
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                body[pos++] = ',';
+            }
+            pos = writeLong(body, pos, ids[i], scratch);
+        }
+        pos = write(body, pos, NAMES);
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                body[pos++] = ',';
+            }
+            pos = write(body, pos, names[i]);
+        }
+        pos = write(body, pos, PRICES);
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                body[pos++] = ',';
+            }
+            pos = priceScales[i] == NO_PRICE ? write(body, pos, NULL) : writeDecimal(body, pos, unscaledPrices[i], priceScales[i], scratch);
+        }
+        pos = write(body, pos, END);
+        return new Snapshot(version, size, "\"" + epoch + "-" + version + "\"", Arrays.copyOf(body, pos));
+    }
+
+    private static int write(byte[] out, int pos, byte[] bytes) {
+        System.arraycopy(bytes, 0, out, pos, bytes.length);
+        return pos + bytes.length;
+    }
+
+    private static int writeLong(byte[] out, int pos, long value, byte[] scratch) {
+        if (value < 0) {
+            out[pos++] = '-';
+        }
+        int first = digits(value, scratch);
+        System.arraycopy(scratch, first, out, pos, scratch.length - first);
+        return pos + scratch.length - first;
+    }
+
+    /**
+     * unscaled * 10^-scale in plain notation, like {@link BigDecimal#toPlainString()}
+     */
+    private static int writeDecimal(byte[] out, int pos, long unscaled, int scale, byte[] scratch) {
+        if (unscaled < 0) {
+            out[pos++] = '-';
+        }
+        int first = digits(unscaled, scratch);
+        int length = scratch.length - first;
+        if (scale <= 0) {
+            System.arraycopy(scratch, first, out, pos, length);
+            pos += length;
+            if (unscaled != 0) {
+                Arrays.fill(out, pos, pos - scale, (byte) '0');
+                pos -= scale;
+            }
+        } else if (length <= scale) {
+            out[pos++] = '0';
+            out[pos++] = '.';
+            Arrays.fill(out, pos, pos + scale - length, (byte) '0');
+            pos += scale - length;
+            System.arraycopy(scratch, first, out, pos, length);
+            pos += length;
+        } else {
+            System.arraycopy(scratch, first, out, pos, length - scale);
+            pos += length - scale;
+            out[pos++] = '.';
+            System.arraycopy(scratch, first + length - scale, out, pos, scale);
+            pos += scale;
+        }
+        return pos;
+    }
+
+    /**
+     * writes the digits of the absolute value right aligned into scratch and returns the index of the first one.
+     * works on the negative value so Long.MIN_VALUE needs no special case
+     */
+    private static int digits(long value, byte[] scratch) {
+        int pos = scratch.length;
+        long negative = value > 0 ? -value : value;
+        do {
+            scratch[--pos] = (byte) ('0' - negative % 10);
+            negative /= 10;
+        } while (negative != 0);
+        return pos;
+    }
+
+    private static byte[] quote(String name) {
+        byte[] escaped = JsonStringEncoder.getInstance().quoteAsUTF8(name);
+        byte[] quoted = new byte[escaped.length + 2];
+        quoted[0] = '"';
+        System.arraycopy(escaped, 0, quoted, 1, escaped.length);
+        quoted[quoted.length - 1] = '"';
+        return quoted;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * one version of the snapshot, eTag is a strong ETag of the version and body the json document
+     */
+    @Value
+    public static class Snapshot {
+        long version;
+        int size;
+        String eTag;
+        byte[] body;
+    }
+}
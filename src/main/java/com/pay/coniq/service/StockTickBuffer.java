@@ -0,0 +1,218 @@
+package com.pay.coniq.service;
+
+import com.pay.coniq.service.dto.StockPriceDTO;
+import com.pay.coniq.service.dto.StockPriceUpdateResultDTO;
+import com.pay.coniq.service.dto.StockTickResultDTO;
+import com.pay.coniq.web.rest.errors.BadRequestAlertException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * bounded in-memory buffer of price ticks which keeps only the latest price per stock id.
+ * a scheduled flusher drains it every store.ticks.flush-interval milliseconds and writes the
+ * net changes through {@link StockService#updatePrices(List)}, one transaction per batch.
+ * the bound is on distinct stock ids, a tick for an id which is already pending is always accepted,
+ * a tick for a new id is rejected once store.ticks.capacity ids are pending.
+ * the ticks of a batch which could not be written are put back unless a newer tick arrived meanwhile,
+ * and retried by the next flush, an id is dropped after store.ticks.max-attempts failed writes.
+ * exposes store.ticks.* metrics for buffer depth, received/coalesced/rejected/retried/failed ticks and flush latency
+ */
+@Component
+public class StockTickBuffer {
+
+    private static final String ENTITY_NAME = "Stock";
+
+    private final Logger log = LoggerFactory.getLogger(StockTickBuffer.class);
+
+    private final ConcurrentHashMap<Long, BigDecimal> pending = new ConcurrentHashMap<>();
+
+    private final AtomicInteger depth = new AtomicInteger();
+
+    /**
+     * failed writes per stock id, cleared once its price is written
+     */
+    private final ConcurrentHashMap<Long, Integer> attempts = new ConcurrentHashMap<>();
+
+    private final StockService stockService;
+
+    private final int capacity;
+
+    private final int batchSize;
+
+    private final int maxAttempts;
+
+    private final Counter received;
+
+    private final Counter coalesced;
+
+    private final Counter rejected;
+
+    private final Counter retried;
+
+    private final Counter failed;
+
+    private final Timer flushTimer;
+
+    public StockTickBuffer(StockService stockService, MeterRegistry meterRegistry,
+                           @Value("${store.ticks.capacity:100000}") int capacity,
+                           @Value("${store.stock.batch-size:500}") int batchSize,
+                           @Value("${store.ticks.max-attempts:3}") int maxAttempts) {
+        this.stockService = stockService;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        Gauge.builder("store.ticks.buffer.depth", depth, AtomicInteger::get)
+                .description("stock ids with a pending price")
+                .register(meterRegistry);
+        this.received = meterRegistry.counter("store.ticks.received");
+        this.coalesced = meterRegistry.counter("store.ticks.coalesced");
+        this.rejected = meterRegistry.counter("store.ticks.rejected");
+        this.retried = meterRegistry.counter("store.ticks.retried");
+        this.failed = meterRegistry.counter("store.ticks.failed");
+        this.flushTimer = Timer.builder("store.ticks.flush")
+                .description("time to write one drained batch of ticks")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    public StockTickResultDTO offer(List<StockPriceDTO> ticks) {
+        if (ticks.stream().anyMatch(tick -> tick.getId() == null || tick.getCurrentPrice() == null)) {
+            throw new BadRequestAlertException("Invalid price tick", ENTITY_NAME, "priceupdateinvalid");
+        }
+        StockTickResultDTO result = new StockTickResultDTO();
+        for (StockPriceDTO tick : ticks) {
+            if (offer(tick.getId(), tick.getCurrentPrice())) {
+                result.setAccepted(result.getAccepted() + 1);
+            } else {
+                result.getRejected().add(tick.getId());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * returns false when the tick was dropped because the buffer is full
+     */
+    public boolean offer(Long id, BigDecimal currentPrice) {
+        received.increment();
+        if (pending.computeIfPresent(id, (key, previous) -> currentPrice) != null) {
+            coalesced.increment();
+            return true;
+        }
+        if (!reserve()) {
+            rejected.increment();
+            return false;
+        }
+        boolean[] added = new boolean[1];
+        pending.compute(id, (key, previous) -> {
+            added[0] = previous == null;
+            return currentPrice;
+        });
+        if (!added[0]) {
+            depth.decrementAndGet();
+            coalesced.increment();
+        }
+        return true;
+    }
+
+    public int getDepth() {
+        return depth.get();
+    }
+
+    /**
+     * drains the buffer and writes it in batches, ticks arriving meanwhile are picked up by the next flush,
+     * as are the ticks of the batches which failed
+     */
+    @Scheduled(fixedDelayString = "${store.ticks.flush-interval:200}")
+    public void flush() {
+        List<StockPriceDTO> unwritten = new ArrayList<>();
+        List<StockPriceDTO> batch = new ArrayList<>(batchSize);
+        Iterator<Map.Entry<Long, BigDecimal>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Long id = iterator.next().getKey();
+            BigDecimal currentPrice = pending.remove(id);
+            if (currentPrice == null) {
+                continue;
+            }
+            depth.decrementAndGet();
+            batch.add(new StockPriceDTO().id(id).currentPrice(currentPrice));
+            if (batch.size() == batchSize) {
+                write(batch, unwritten);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            write(batch, unwritten);
+        }
+        unwritten.forEach(this::retry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private void write(List<StockPriceDTO> batch, List<StockPriceDTO> unwritten) {
+        try {
+            StockPriceUpdateResultDTO result = flushTimer.recordCallable(() -> stockService.updatePrices(batch));
+            if (!result.getFailed().isEmpty()) {
+                log.debug("Dropped ticks of unknown Stocks : {}", result.getFailed());
+                failed.increment(result.getFailed().size());
+            }
+            if (!attempts.isEmpty()) {
+                batch.forEach(tick -> attempts.remove(tick.getId()));
+            }
+        } catch (Exception e) {
+            log.error("Could not write {} ticks", batch.size(), e);
+            unwritten.addAll(batch);
+        }
+    }
+
+    /**
+     * puts a tick of a failed batch back unless a newer tick for its id is pending, which wins and starts
+     * over with no failed attempts. the id keeps its slot of the capacity it held before the flush
+     */
+    private void retry(StockPriceDTO tick) {
+        Long id = tick.getId();
+        if (attempts.merge(id, 1, Integer::sum) >= maxAttempts) {
+            log.warn("Dropped the tick of Stock {} after {} failed writes", id, maxAttempts);
+            attempts.remove(id);
+            failed.increment();
+            return;
+        }
+        if (pending.putIfAbsent(id, tick.getCurrentPrice()) == null) {
+            depth.incrementAndGet();
+            retried.increment();
+        } else {
+            attempts.remove(id);
+            coalesced.increment();
+        }
+    }
+
+    private boolean reserve() {
+        int current;
+        do {
+            current = depth.get();
+            if (current >= capacity) {
+                return false;
+            }
+        } while (!depth.compareAndSet(current, current + 1));
+        return true;
+    }
+}
@@ -0,0 +1,416 @@
+package com.pay.coniq.service.audit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pay.coniq.config.AuditConfiguration;
+import com.pay.coniq.service.event.StockChangedEvent;
+import com.pay.coniq.service.event.StockChangesEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Paths;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * audit writer of store.audit.mode=async. The {@link StockChangedEvent}s of a transaction are merged
+ * into one {@link AuditRecord} per transaction which is appended to the {@link AuditJournal} as pending
+ * before it commits and resolved by a second record after it completed.
+ * A scheduled worker writes the committed records to revinfo and stock_aud every store.audit.flush-interval
+ * milliseconds, one envers revision per record and batched stock_aud inserts, and advances the
+ * {@link com.pay.coniq.domain.AuditCheckpoint} row of the journal in the same transaction. On startup every
+ * committed record after the checkpoint is replayed, so audit rows of transactions committed before a crash
+ * are not lost. A pending record left unresolved by a crash between commit and resolution is reconciled against
+ * the stock table: it counts as committed when every stock is in the state it describes, a created or updated
+ * row exists with the journaled price and a deleted row is gone. A later committed change of the same stocks
+ * makes it look rolled back, it is then dropped and counted in store.audit.reconcile.dropped.
+ * A revision number is assigned when the record is written, so its revtstmp is raised to the latest one in
+ * revinfo when the commit was earlier and revtstmp grows with rev as the history queries expect
+ */
+@Component
+@ConditionalOnProperty(name = AuditConfiguration.MODE_PROPERTY, havingValue = AuditConfiguration.MODE_ASYNC)
+@DependsOn("entityManagerFactory")
+public class AsyncAuditWriter {
+
+    /**
+     * envers revision types, see {@link org.hibernate.envers.RevisionType}
+     */
+    private static final int REVTYPE_ADD = 0;
+    private static final int REVTYPE_MOD = 1;
+    private static final int REVTYPE_DEL = 2;
+
+    private static final String INSERT_REVISION_SQL =
+            "insert into revinfo (revtstmp) select greatest(?, coalesce(max(revtstmp), 0)) from revinfo";
+
+    private static final String AUDIT_SQL =
+            "insert into stock_aud (id, rev, revtype, current_price, name) " +
+                    "values (?, ?, ?, ?, coalesce(?, (select s.name from stock s where s.id = ?)))";
+
+    private static final String CHECKPOINT_SQL = "select last_seq from audit_checkpoint where id = ?";
+
+    private static final String LOCK_CHECKPOINT_SQL = CHECKPOINT_SQL + " for update";
+
+    private static final String INSERT_CHECKPOINT_SQL = "insert into audit_checkpoint (id, last_seq) values (?, ?)";
+
+    private static final String UPDATE_CHECKPOINT_SQL = "update audit_checkpoint set last_seq = ? where id = ?";
+
+    private static final String STOCK_PRICE_SQL = "select current_price from stock where id = ?";
+
+    private final Logger log = LoggerFactory.getLogger(AsyncAuditWriter.class);
+
+    private final Queue<AuditRecord> queue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger depth = new AtomicInteger();
+
+    /**
+     * seqs of the pending records whose transactions have not completed yet, their segments are kept
+     */
+    private final NavigableSet<Long> unresolved = new ConcurrentSkipListSet<>();
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final AuditJournal journal;
+
+    private final int batchSize;
+
+    private final Counter journalFailed;
+
+    private final Counter writeFailed;
+
+    private final Counter reconcileDropped;
+
+    private final Timer flushTimer;
+
+    public AsyncAuditWriter(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                            ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                            @Value("${store.audit.journal-dir:audit-journal}") String journalDir,
+                            @Value("${store.audit.segment-size:67108864}") long segmentSize,
+                            @Value("${store.audit.fsync:true}") boolean fsync,
+                            @Value("${store.stock.batch-size:500}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.journal = new AuditJournal(Paths.get(journalDir), segmentSize, fsync, objectMapper);
+        this.batchSize = batchSize;
+        Gauge.builder("store.audit.queue.depth", depth, AtomicInteger::get)
+                .description("journaled audit records not yet written to the database")
+                .register(meterRegistry);
+        this.journalFailed = meterRegistry.counter("store.audit.journal.failed");
+        this.writeFailed = meterRegistry.counter("store.audit.write.failed");
+        this.reconcileDropped = meterRegistry.counter("store.audit.reconcile.dropped");
+        this.flushTimer = Timer.builder("store.audit.flush")
+                .description("time to write one batch of audit records")
+                .register(meterRegistry);
+    }
+
+    /**
+     * replays the journal against the checkpoint row of its id, refuses a checkpoint ahead of the journal
+     * as it would drop the records up to it
+     */
+    @PostConstruct
+    public void replay() throws IOException {
+        journal.open();
+        long checkpoint = jdbcTemplate.queryForList(CHECKPOINT_SQL, Long.class, journal.getId()).stream()
+                .findFirst().orElse(0L);
+        if (checkpoint > journal.getLastSeq()) {
+            throw new IllegalStateException("Audit checkpoint " + checkpoint + " of journal " + journal.getId()
+                    + " is ahead of its last record " + journal.getLastSeq() + ", refusing to replay");
+        }
+        // Pending records can be older than the checkpoint when later transactions were written meanwhile
+        Map<Long, AuditRecord> pending = new LinkedHashMap<>();
+        journal.read(Long.MIN_VALUE, record -> {
+            if (record.isPending()) {
+                pending.put(record.getSeq(), record);
+                return;
+            }
+            pending.remove(record.getResolves());
+            if (record.getSeq() > checkpoint && !record.getEntries().isEmpty()) {
+                enqueue(record);
+            }
+        });
+        if (depth.get() > 0) {
+            log.info("Replaying {} audit records of journal {} after checkpoint {}", depth.get(), journal.getId(), checkpoint);
+        }
+        for (AuditRecord record : pending.values()) {
+            boolean committed = isCommitted(record);
+            if (!committed) {
+                log.warn("Dropping unresolved audit record {} of Stocks not in its state : {}", record.getSeq(), record.getEntries());
+                reconcileDropped.increment();
+            }
+            resolve(record.getSeq(), record.getTimestamp(), committed ? record.getEntries() : Collections.emptyList());
+        }
+    }
+
+    @EventListener
+    public void onStockChanged(StockChangesEvent event) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            PendingRevision revision = new PendingRevision();
+            event.getChanges().forEach(change -> revision.add(toEntry(change)));
+            resolve(0, System.currentTimeMillis(), revision.toList());
+            return;
+        }
+        PendingRevision revision = (PendingRevision) TransactionSynchronizationManager.getResource(this);
+        if (revision == null) {
+            revision = new PendingRevision();
+            TransactionSynchronizationManager.bindResource(this, revision);
+            TransactionSynchronizationManager.registerSynchronization(revision);
+        }
+        for (StockChangedEvent change : event.getChanges()) {
+            revision.add(toEntry(change));
+        }
+    }
+
+    public int getDepth() {
+        return depth.get();
+    }
+
+    /**
+     * writes queued records in batches of about store.stock.batch-size rows, a failed batch stays
+     * queued and is retried by the next flush
+     */
+    @Scheduled(fixedDelayString = "${store.audit.flush-interval:500}", initialDelayString = "${store.audit.flush-interval:500}")
+    public synchronized void flush() {
+        while (!queue.isEmpty()) {
+            List<AuditRecord> batch = new ArrayList<>();
+            int rows = 0;
+            Iterator<AuditRecord> iterator = queue.iterator();
+            while (iterator.hasNext() && rows < batchSize) {
+                AuditRecord record = iterator.next();
+                batch.add(record);
+                rows += record.getEntries().size();
+            }
+            try {
+                flushTimer.record(() -> write(batch));
+            } catch (RuntimeException e) {
+                log.error("Could not write {} audit records, retrying on next flush", batch.size(), e);
+                writeFailed.increment();
+                return;
+            }
+            batch.forEach(record -> {
+                queue.poll();
+                depth.decrementAndGet();
+            });
+            try {
+                long upToSeq = batch.get(batch.size() - 1).getSeq();
+                Long oldestPending = unresolved.ceiling(Long.MIN_VALUE);
+                journal.truncate(oldestPending == null ? upToSeq : Math.min(upToSeq, oldestPending - 1));
+            } catch (IOException e) {
+                log.warn("Could not truncate audit journal", e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        flush();
+        journal.close();
+    }
+
+    /**
+     * journals the pending record of a transaction about to commit, returns its seq or 0 when it could not
+     */
+    private long journalPending(List<AuditRecord.Entry> entries) {
+        synchronized (journal) {
+            try {
+                long seq = journal.append(System.currentTimeMillis(), true, 0, entries).getSeq();
+                unresolved.add(seq);
+                return seq;
+            } catch (IOException e) {
+                log.error("Could not journal pending audit record of Stocks : {}", entries, e);
+                journalFailed.increment();
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * journals the record resolving the pending one with the given seq, 0 for none, and queues it for writing
+     * unless it has no entries (rolled back). records are queued in journal order
+     */
+    private void resolve(long pendingSeq, long timestamp, List<AuditRecord.Entry> entries) {
+        synchronized (journal) {
+            try {
+                AuditRecord record = journal.append(timestamp, false, pendingSeq, entries);
+                if (!entries.isEmpty()) {
+                    enqueue(record);
+                }
+                unresolved.remove(pendingSeq);
+            } catch (IOException e) {
+                // The pending record stays unresolved and is reconciled on the next start
+                log.error("Could not journal audit record of Stocks : {}", entries, e);
+                journalFailed.increment();
+            }
+        }
+    }
+
+    /**
+     * whether every stock of the record is in the state the record leaves it in
+     */
+    private boolean isCommitted(AuditRecord record) {
+        for (AuditRecord.Entry entry : record.getEntries()) {
+            List<BigDecimal> currentPrice = jdbcTemplate.queryForList(STOCK_PRICE_SQL, BigDecimal.class, entry.getId());
+            if (entry.getRevtype() == REVTYPE_DEL) {
+                if (!currentPrice.isEmpty()) {
+                    return false;
+                }
+            } else if (currentPrice.isEmpty() || entry.getCurrentPrice() == null
+                    || currentPrice.get(0).compareTo(entry.getCurrentPrice()) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void enqueue(AuditRecord record) {
+        queue.add(record);
+        depth.incrementAndGet();
+    }
+
+    private void write(List<AuditRecord> batch) {
+        transactionTemplate.executeWithoutResult(status -> {
+            long checkpoint = lockCheckpoint(journal.getId());
+            long lastSeq = checkpoint;
+            List<Object[]> rows = new ArrayList<>();
+            for (AuditRecord record : batch) {
+                if (record.getSeq() <= checkpoint) {
+                    continue;
+                }
+                int rev = insertRevision(record.getTimestamp());
+                for (AuditRecord.Entry entry : record.getEntries()) {
+                    rows.add(new Object[]{entry.getId(), rev, entry.getRevtype(), entry.getCurrentPrice(),
+                            entry.getName(), entry.getId()});
+                }
+                lastSeq = record.getSeq();
+            }
+            jdbcTemplate.batchUpdate(AUDIT_SQL, rows);
+            if (lastSeq > checkpoint) {
+                jdbcTemplate.update(UPDATE_CHECKPOINT_SQL, lastSeq, journal.getId());
+            }
+        });
+    }
+
+    /**
+     * locks the checkpoint row of the journal so that records are written exactly once even if two writers
+     * share the journal
+     */
+    private long lockCheckpoint(String journalId) {
+        List<Long> checkpoint = jdbcTemplate.queryForList(LOCK_CHECKPOINT_SQL, Long.class, journalId);
+        if (checkpoint.isEmpty()) {
+            jdbcTemplate.update(INSERT_CHECKPOINT_SQL, journalId, 0L);
+            return 0L;
+        }
+        return checkpoint.get(0);
+    }
+
+    private int insertRevision(long timestamp) {
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> {
+            PreparedStatement ps = connection.prepareStatement(INSERT_REVISION_SQL, Statement.RETURN_GENERATED_KEYS);
+            ps.setLong(1, timestamp);
+            return ps;
+        }, keyHolder);
+        return keyHolder.getKey().intValue();
+    }
+
+    private static AuditRecord.Entry toEntry(StockChangedEvent event) {
+        switch (event.getType()) {
+            case CREATED:
+                return new AuditRecord.Entry(event.getId(), REVTYPE_ADD, event.getName(), event.getStock().getCurrentPrice());
+            case UPDATED:
+                return new AuditRecord.Entry(event.getId(), REVTYPE_MOD, event.getName(), event.getStock().getCurrentPrice());
+            default:
+                return new AuditRecord.Entry(event.getId(), REVTYPE_DEL, null, null);
+        }
+    }
+
+    /**
+     * the changes of one transaction, merged per stock the way envers merges its work units
+     */
+    private class PendingRevision implements TransactionSynchronization {
+
+        private final Map<Long, AuditRecord.Entry> entries = new LinkedHashMap<>();
+
+        /**
+         * seq of the pending record, 0 before commit or when it could not be journaled
+         */
+        private long pendingSeq;
+
+        void add(AuditRecord.Entry entry) {
+            AuditRecord.Entry previous = entries.get(entry.getId());
+            if (previous == null) {
+                entries.put(entry.getId(), entry);
+            } else if (previous.getRevtype() == REVTYPE_ADD && entry.getRevtype() == REVTYPE_DEL) {
+                entries.remove(entry.getId());
+            } else if (entry.getRevtype() == REVTYPE_DEL) {
+                entries.put(entry.getId(), entry);
+            } else {
+                int revtype = previous.getRevtype() == REVTYPE_ADD ? REVTYPE_ADD : entry.getRevtype();
+                String name = entry.getName() != null ? entry.getName() : previous.getName();
+                entries.put(entry.getId(), new AuditRecord.Entry(entry.getId(), revtype, name, entry.getCurrentPrice()));
+            }
+        }
+
+        List<AuditRecord.Entry> toList() {
+            return new ArrayList<>(entries.values());
+        }
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            if (!entries.isEmpty()) {
+                pendingSeq = journalPending(toList());
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(AsyncAuditWriter.this);
+            if (entries.isEmpty() || (pendingSeq == 0 && status != STATUS_COMMITTED)) {
+                return;
+            }
+            AuditRecord record = new AuditRecord(pendingSeq, System.currentTimeMillis(), true, 0, toList());
+            boolean committed = status == STATUS_COMMITTED;
+            if (status == STATUS_UNKNOWN) {
+                // The outcome of a commit which failed halfway is read back like on replay
+                try {
+                    committed = isCommitted(record);
+                } catch (RuntimeException e) {
+                    log.warn("Could not reconcile audit record {}, it is reconciled on the next start", pendingSeq, e);
+                    return;
+                }
+            }
+            resolve(pendingSeq, record.getTimestamp(), committed ? record.getEntries() : Collections.emptyList());
+        }
+    }
+}
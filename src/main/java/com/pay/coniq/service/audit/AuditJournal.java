@@ -0,0 +1,230 @@
+package com.pay.coniq.service.audit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * append-only journal of {@link AuditRecord}s, one JSON line per record, split into segment files
+ * named after the sequence number of their first record. Every open starts a fresh segment so a line
+ * torn by a crash is never appended to, unreadable lines are skipped on replay.
+ * The journal has a random id, created with its first segment and written into the header line of every
+ * segment, which keys its checkpoint. Segments of another journal are refused.
+ * Segments are deleted once every record in them is checkpointed, see {@link #truncate(long)}
+ */
+public class AuditJournal implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "audit-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String HEADER_PREFIX = "#journal ";
+
+    private final Logger log = LoggerFactory.getLogger(AuditJournal.class);
+
+    private final Path dir;
+
+    private final long segmentSize;
+
+    private final boolean fsync;
+
+    private final ObjectMapper objectMapper;
+
+    private String id;
+
+    private FileChannel current;
+
+    private long lastSeq;
+
+    public AuditJournal(Path dir, long segmentSize, boolean fsync, ObjectMapper objectMapper) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.fsync = fsync;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * continues the journal found in the directory after its last record, or starts a new one with a new id
+     * when the directory has no segments. fails when the segments belong to different journals
+     */
+    public synchronized void open() throws IOException {
+        Files.createDirectories(dir);
+        id = null;
+        lastSeq = 0;
+        for (Path segment : segments()) {
+            String segmentId = readId(segment);
+            if (segmentId != null && id != null && !id.equals(segmentId)) {
+                throw new IOException("Audit journal segment " + segment.getFileName() + " belongs to journal "
+                        + segmentId + ", not " + id);
+            }
+            if (segmentId != null) {
+                id = segmentId;
+            }
+        }
+        if (id == null) {
+            id = UUID.randomUUID().toString();
+        }
+        List<Path> segments = segments();
+        if (!segments.isEmpty()) {
+            Path last = segments.get(segments.size() - 1);
+            lastSeq = firstSeq(last) - 1;
+            read(last, Long.MIN_VALUE, record -> lastSeq = Math.max(lastSeq, record.getSeq()));
+        }
+        roll();
+    }
+
+    public synchronized String getId() {
+        return id;
+    }
+
+    public synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * writes the record and, when store.audit.fsync is set, forces it to disk before returning.
+     * see {@link AuditRecord} for pending and resolves
+     */
+    public synchronized AuditRecord append(long timestamp, boolean pending, long resolves,
+                                           List<AuditRecord.Entry> entries) throws IOException {
+        AuditRecord record = new AuditRecord(lastSeq + 1, timestamp, pending, resolves, entries);
+        try {
+            write(objectMapper.writeValueAsString(record));
+        } catch (IOException e) {
+            roll();
+            throw e;
+        }
+        lastSeq = record.getSeq();
+        if (current.size() >= segmentSize) {
+            roll();
+        }
+        return record;
+    }
+
+    /**
+     * passes every record with a sequence number above afterSeq to the consumer, in journal order.
+     * fails on a segment whose header is not the one of this journal
+     */
+    public void read(long afterSeq, Consumer<AuditRecord> consumer) throws IOException {
+        List<Path> segments = segments();
+        for (int i = 0; i < segments.size(); i++) {
+            if (i + 1 < segments.size() && firstSeq(segments.get(i + 1)) - 1 <= afterSeq) {
+                continue;
+            }
+            read(segments.get(i), afterSeq, consumer);
+        }
+    }
+
+    /**
+     * deletes the segments whose records are all at or below upToSeq, the current segment is kept
+     */
+    public synchronized void truncate(long upToSeq) throws IOException {
+        List<Path> segments = segments();
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            if (firstSeq(segments.get(i + 1)) - 1 <= upToSeq) {
+                Files.deleteIfExists(segments.get(i));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    private void read(Path segment, long afterSeq, Consumer<AuditRecord> consumer) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null) {
+                return;
+            }
+            if (!line.equals(HEADER_PREFIX + id)) {
+                throw new IOException("Audit journal segment " + segment.getFileName() + " does not belong to journal "
+                        + id + ", refusing to replay it");
+            }
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                AuditRecord record;
+                try {
+                    record = objectMapper.readValue(line, AuditRecord.class);
+                } catch (IOException e) {
+                    log.warn("Skipping unreadable audit journal line in {}", segment.getFileName());
+                    continue;
+                }
+                if (record.getSeq() > afterSeq) {
+                    consumer.accept(record);
+                }
+            }
+        }
+    }
+
+    /**
+     * starts the segment of the next record with the header line, an existing segment of that name has no
+     * records, it was started by an open or a roll after a failed append, and gets the same header again
+     */
+    private void roll() throws IOException {
+        close();
+        Path segment = dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, lastSeq + 1, SEGMENT_SUFFIX));
+        current = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        write(HEADER_PREFIX + id);
+    }
+
+    private void write(String line) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            current.write(bytes);
+        }
+        if (fsync) {
+            current.force(false);
+        }
+    }
+
+    /**
+     * id in the header line of the segment, null for an empty segment
+     */
+    private static String readId(Path segment) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+            if (!line.startsWith(HEADER_PREFIX)) {
+                throw new IOException("Audit journal segment " + segment.getFileName() + " has no journal header");
+            }
+            return line.substring(HEADER_PREFIX.length());
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static long firstSeq(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
@@ -0,0 +1,43 @@
+package com.pay.coniq.service.audit;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * one transaction in the audit journal, a committed one becomes one envers revision.
+ * seq is assigned by {@link AuditJournal} and timestamp is the commit time in epoch milliseconds.
+ * a pending record is journaled before its transaction commits, the record resolving it (resolves is its seq)
+ * is journaled after, with the entries when the transaction committed and without when it rolled back.
+ * a record which resolves nothing was journaled outside of a transaction
+ * */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AuditRecord {
+
+    private long seq;
+    private long timestamp;
+    private boolean pending;
+    private long resolves;
+    private List<Entry> entries = new ArrayList<>();
+
+    /**
+     * one stock_aud row, revtype as in {@link org.hibernate.envers.RevisionType}.
+     * name is null when the writer did not load the row, it is then taken from the stock table
+     * */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Entry {
+
+        private Long id;
+        private int revtype;
+        private String name;
+        private BigDecimal currentPrice;
+    }
+}
@@ -0,0 +1,22 @@
+package com.pay.coniq.service.dto;
+
+import lombok.Data;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * open/high/low/close of the prices of one stock within one {@link CandleInterval} bucket,
+ * count is the number of price changes in the bucket
+ * */
+@Data
+public class CandleDTO implements Serializable {
+
+    private Instant start;
+    private BigDecimal open;
+    private BigDecimal high;
+    private BigDecimal low;
+    private BigDecimal close;
+    private long count;
+}
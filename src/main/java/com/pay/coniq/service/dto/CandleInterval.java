@@ -0,0 +1,45 @@
+package com.pay.coniq.service.dto;
+
+import com.pay.coniq.web.rest.errors.BadRequestAlertException;
+
+import java.util.Arrays;
+
+/**
+ * candle widths of GET /api/stocks/{id}/candles, buckets are aligned to the epoch in UTC
+ * */
+public enum CandleInterval {
+
+    ONE_MINUTE("1m", 60_000L),
+    ONE_HOUR("1h", 3_600_000L),
+    ONE_DAY("1d", 86_400_000L);
+
+    private final String code;
+    private final long millis;
+
+    CandleInterval(String code, long millis) {
+        this.code = code;
+        this.millis = millis;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    /**
+     * start of the bucket containing the given epoch milliseconds
+     */
+    public long bucketStart(long timestamp) {
+        return Math.floorDiv(timestamp, millis) * millis;
+    }
+
+    public static CandleInterval of(String code) {
+        return Arrays.stream(values())
+                .filter(interval -> interval.code.equals(code))
+                .findFirst()
+                .orElseThrow(() -> new BadRequestAlertException("Invalid candle interval", "Stock", "intervalinvalid"));
+    }
+}
@@ -0,0 +1,23 @@
+package com.pay.coniq.service.dto;
+
+import com.pay.coniq.service.event.StockChangedEvent;
+import lombok.Data;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * latest audited state of a stock changed since a sync cursor, a DELETED change is a tombstone
+ * which only carries the id
+ * */
+@Data
+public class StockChangeDTO implements Serializable {
+
+    private Long id;
+    private Integer rev;
+    private Instant timestamp;
+    private StockChangedEvent.Type type;
+    private String name;
+    private BigDecimal currentPrice;
+}
@@ -0,0 +1,39 @@
+package com.pay.coniq.service.dto;
+
+import lombok.Data;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * optional filters of the stock list, bound from the query string. every bound is inclusive
+ * and the filters that are set are combined with and
+ * see also {@link com.pay.coniq.repository.StockSpecifications}
+ * */
+@Data
+public class StockCriteria implements Serializable {
+
+    private BigDecimal minPrice;
+    private BigDecimal maxPrice;
+    private String namePrefix;
+    private String nameContains;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private Instant createdSince;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private Instant createdUntil;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private Instant modifiedSince;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private Instant modifiedUntil;
+
+    public boolean isEmpty() {
+        return minPrice == null && maxPrice == null && isBlank(namePrefix) && isBlank(nameContains)
+                && createdSince == null && createdUntil == null && modifiedSince == null && modifiedUntil == null;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isEmpty();
+    }
+}
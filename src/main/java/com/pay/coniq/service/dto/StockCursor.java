@@ -0,0 +1,63 @@
+package com.pay.coniq.service.dto;
+
+import com.pay.coniq.web.rest.errors.BadRequestAlertException;
+import lombok.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * opaque keyset pagination cursor, the last seen sort key of a page.
+ * stocks can be walked by id or by their unique name, both are backed by an index
+ * */
+@Value
+public class StockCursor {
+
+    public static final String SORT_ID = "id";
+    public static final String SORT_NAME = "name";
+
+    private static final String ENTITY_NAME = "Stock";
+
+    String sort;
+    String key;
+
+    public static StockCursor start(String sort) {
+        return new StockCursor(sort, null);
+    }
+
+    public static StockCursor after(String sort, StockDTO last) {
+        return new StockCursor(sort, SORT_NAME.equals(sort) ? last.getName() : last.getId().toString());
+    }
+
+    public boolean isStart() {
+        return key == null;
+    }
+
+    public Long getIdKey() {
+        return Long.valueOf(key);
+    }
+
+    /**
+     * url safe base64 of {@code sort:key}
+     */
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString((sort + ":" + key).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static StockCursor decode(String cursor) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = decoded.indexOf(':');
+            String sort = decoded.substring(0, separator);
+            String key = decoded.substring(separator + 1);
+            if (SORT_ID.equals(sort)) {
+                Long.parseLong(key);
+            } else if (!SORT_NAME.equals(sort)) {
+                throw new IllegalArgumentException(sort);
+            }
+            return new StockCursor(sort, key);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new BadRequestAlertException("Invalid cursor", ENTITY_NAME, "cursorinvalid");
+        }
+    }
+}
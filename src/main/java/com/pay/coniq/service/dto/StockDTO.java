@@ -1,10 +1,12 @@
 package com.pay.coniq.service.dto;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.pay.coniq.domain.Stock;
 import lombok.Data;
 
 import java.io.Serializable;
 import java.math.BigDecimal;
+import java.time.Instant;
 import java.util.Objects;
 
 /**
@@ -16,8 +18,19 @@ public class StockDTO implements Serializable {
     private Long id;
     private String name;
     private BigDecimal currentPrice;
-    private String createdDate;
-    private String modifiedDate;
+    /**
+     * optimistic lock version, also the ETag. ignored when read, a client sends it as If-Match
+     * */
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Long version;
+    /**
+     * written as {@link com.pay.coniq.service.mapper.StockMapper#DATE_FORMAT} unless the request asks for another
+     * format, see {@link com.pay.coniq.web.rest.util.StockDTOSerializer}. ignored when read
+     * */
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Instant createdDate;
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Instant modifiedDate;
 
     /**
      * set name using builder pattern
@@ -0,0 +1,30 @@
+package com.pay.coniq.service.dto;
+
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * outcome of a stock import, only the first errors are kept so the report stays small
+ * however broken the input is, errorCount is always the total
+ * */
+@Data
+public class StockImportResultDTO implements Serializable {
+
+    private long lines;
+    private long created;
+    private long updated;
+    private long errorCount;
+    private List<LineError> errors = new ArrayList<>();
+    private long elapsedMillis;
+    private double rowsPerSecond;
+
+    @Data
+    public static class LineError implements Serializable {
+
+        private final long line;
+        private final String message;
+    }
+}
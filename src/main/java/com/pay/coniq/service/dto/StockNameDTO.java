@@ -0,0 +1,23 @@
+package com.pay.coniq.service.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * id and name of a stock, the result of a name search
+ * see also {@link StockDTO}
+ * */
+@Data
+@NoArgsConstructor
+public class StockNameDTO implements Serializable {
+
+    private Long id;
+    private String name;
+
+    public StockNameDTO(Long id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+}
@@ -0,0 +1,32 @@
+package com.pay.coniq.service.dto;
+
+import lombok.Data;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+/**
+ * a single {id, currentPrice} pair of a bulk price update
+ * see also {@link StockPriceUpdateResultDTO}
+ * */
+@Data
+public class StockPriceDTO implements Serializable {
+
+    private Long id;
+    private BigDecimal currentPrice;
+
+    /**
+     * set id using builder pattern
+     * */
+    public StockPriceDTO id(Long id) {
+        this.id = id;
+        return this;
+    }
+    /**
+     * set currentPrice using builder pattern
+     * */
+    public StockPriceDTO currentPrice(BigDecimal currentPrice) {
+        this.currentPrice = currentPrice;
+        return this;
+    }
+}
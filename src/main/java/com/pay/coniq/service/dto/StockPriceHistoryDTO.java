@@ -0,0 +1,20 @@
+package com.pay.coniq.service.dto;
+
+import com.pay.coniq.service.event.StockChangedEvent;
+import lombok.Data;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * one audited revision of a stock, currentPrice is null for the revision which deleted it
+ * */
+@Data
+public class StockPriceHistoryDTO implements Serializable {
+
+    private Integer rev;
+    private Instant timestamp;
+    private StockChangedEvent.Type type;
+    private BigDecimal currentPrice;
+}
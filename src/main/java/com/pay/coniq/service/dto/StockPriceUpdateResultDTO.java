@@ -0,0 +1,18 @@
+package com.pay.coniq.service.dto;
+
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * outcome of a bulk price update, ids are reported in request order
+ * see also {@link StockPriceDTO}
+ * */
+@Data
+public class StockPriceUpdateResultDTO implements Serializable {
+
+    private List<Long> updated = new ArrayList<>();
+    private List<Long> failed = new ArrayList<>();
+}
@@ -0,0 +1,19 @@
+package com.pay.coniq.service.dto;
+
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * outcome of offering price ticks to the ingestion buffer,
+ * rejected ids were dropped because the buffer was full and should be retried
+ * see also {@link StockPriceDTO}
+ * */
+@Data
+public class StockTickResultDTO implements Serializable {
+
+    private int accepted;
+    private List<Long> rejected = new ArrayList<>();
+}
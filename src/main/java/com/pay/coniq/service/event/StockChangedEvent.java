@@ -0,0 +1,47 @@
+package com.pay.coniq.service.event;
+
+import com.pay.coniq.service.dto.StockDTO;
+import lombok.Value;
+
+/**
+ * one created, updated or deleted stock, {@link com.pay.coniq.service.StockService} publishes the changes of a
+ * write together in a {@link StockChangesEvent}.
+ * listeners which must only see committed data use
+ * {@link org.springframework.transaction.event.TransactionalEventListener}.
+ * name is null when the writer did not load the row (bulk price updates),
+ * stock is null for deletes and only carries id and currentPrice for bulk price updates.
+ * timestamp is taken when the change is published, after the row was written, so the changes of one stock
+ * are ordered by it even when their listeners run out of order
+ * */
+@Value
+public class StockChangedEvent {
+
+    public enum Type {
+        CREATED, UPDATED, DELETED
+    }
+
+    Type type;
+    Long id;
+    String name;
+    StockDTO stock;
+    long timestamp;
+
+    public static StockChangedEvent created(StockDTO stock) {
+        return new StockChangedEvent(Type.CREATED, stock.getId(), stock.getName(), stock, System.currentTimeMillis());
+    }
+
+    public static StockChangedEvent updated(StockDTO stock) {
+        return new StockChangedEvent(Type.UPDATED, stock.getId(), stock.getName(), stock, System.currentTimeMillis());
+    }
+
+    /**
+     * price update of a row which was not loaded, stock only carries id and currentPrice
+     */
+    public static StockChangedEvent priceUpdated(StockDTO stock) {
+        return new StockChangedEvent(Type.UPDATED, stock.getId(), null, stock, System.currentTimeMillis());
+    }
+
+    public static StockChangedEvent deleted(Long id, String name) {
+        return new StockChangedEvent(Type.DELETED, id, name, null, System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,20 @@
+package com.pay.coniq.service.event;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * published by {@link com.pay.coniq.service.StockService} once per write with the {@link StockChangedEvent} of
+ * every stock it created, updated or deleted, so a batch of many rows registers one transaction
+ * synchronization per listener instead of one per row. listeners loop over changes in order
+ * */
+@Value
+public class StockChangesEvent {
+
+    List<StockChangedEvent> changes;
+
+    public static StockChangesEvent of(StockChangedEvent change) {
+        return new StockChangesEvent(List.of(change));
+    }
+}
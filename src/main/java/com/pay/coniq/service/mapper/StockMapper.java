@@ -5,6 +5,11 @@ import com.pay.coniq.service.dto.StockDTO;
 import org.mapstruct.Mapper;
 import org.mapstruct.Mapping;
 
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
 /**
  * StockMapper using Entity mapper
  * see {@link StockDTO} and {@link Stock}
@@ -12,19 +17,34 @@ import org.mapstruct.Mapping;
 @Mapper(componentModel = "spring", uses = {})
 public interface StockMapper extends EntityMapper<StockDTO, Stock> {
 
+    /**
+     * format of createdDate and modifiedDate in {@link StockDTO} json and csv, in the default time zone
+     * */
+    String DATE_FORMAT = "yyyy MMM dd HH:mm:ss.SSS";
+
+    /**
+     * {@link #DATE_FORMAT} as an immutable, thread safe formatter
+     * */
+    DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern(DATE_FORMAT).withZone(ZoneId.systemDefault());
 
     @Override
-    @Mapping(source = "createdDate", target = "createdDate", dateFormat = "yyyy MMM dd HH:mm:ss.SSS")
-    @Mapping(source = "modifiedDate", target = "modifiedDate", dateFormat = "yyyy MMM dd HH:mm:ss.SSS")
     StockDTO toDto(Stock entity);
 
     @Override
     @Mapping(target = "createdDate",ignore = true)
     @Mapping(target = "modifiedDate",ignore = true)
+    @Mapping(target = "version",ignore = true)
     Stock toEntity(StockDTO dto);
 
 
 
+    /**
+     * dates are kept as instants and only formatted when written
+     * */
+    default Instant toInstant(Timestamp timestamp) {
+        return timestamp == null ? null : timestamp.toInstant();
+    }
+
     default Stock fromId(Long id) {
         if (id == null) {
             return null;
@@ -1,33 +1,86 @@
 package com.pay.coniq.web.rest;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.pay.coniq.service.StockChangeTracker;
+import com.pay.coniq.service.StockHistoryService;
+import com.pay.coniq.service.StockImportService;
+import com.pay.coniq.service.StockNameIndex;
 import com.pay.coniq.service.StockService;
+import com.pay.coniq.service.StockSnapshot;
+import com.pay.coniq.service.StockTickBuffer;
+import com.pay.coniq.service.dto.CandleDTO;
+import com.pay.coniq.service.dto.CandleInterval;
+import com.pay.coniq.service.dto.StockChangeDTO;
+import com.pay.coniq.service.dto.StockCriteria;
+import com.pay.coniq.service.dto.StockCursor;
 import com.pay.coniq.service.dto.StockDTO;
+import com.pay.coniq.service.dto.StockImportResultDTO;
+import com.pay.coniq.service.dto.StockNameDTO;
+import com.pay.coniq.service.dto.StockPriceDTO;
+import com.pay.coniq.service.dto.StockPriceHistoryDTO;
+import com.pay.coniq.service.dto.StockPriceUpdateResultDTO;
+import com.pay.coniq.service.dto.StockTickResultDTO;
 import com.pay.coniq.web.rest.errors.BadRequestAlertException;
+import com.pay.coniq.web.rest.util.ETagUtil;
 import com.pay.coniq.web.rest.util.HeaderUtil;
 import com.pay.coniq.web.rest.util.PaginationUtil;
 import com.pay.coniq.web.rest.util.ResponseUtil;
+import com.pay.coniq.web.rest.util.StockExportWriter;
+import com.pay.coniq.web.sse.StockPriceBroadcaster;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Rest services related to Stock actions
  * some methods are {@link #createStock(StockDTO)}
- * some methods are {@link #updateStock(Long,BigDecimal)}
- * some methods are {@link #getAllStocks(Pageable)}
- * some methods are {@link #getStock(Long)}
+ * some methods are {@link #createStocks(List)}
+ * some methods are {@link #updateStock(Long,BigDecimal,String)}
+ * some methods are {@link #updateStockPrices(List)}
+ * some methods are {@link #offerStockTicks(List)}
+ * some methods are {@link #getAllStocks(StockCriteria, Pageable, String, Set, WebRequest)}
+ * some methods are {@link #getStock(Long, WebRequest)}
+ * some methods are {@link #getStockByName(String, WebRequest)}
+ * some methods are {@link #searchStocks(String, int)}
+ * some methods are {@link #getStockSnapshot(WebRequest)}
+ * some methods are {@link #getStockHistory(Long, Instant, Instant, Integer, Pageable)}
+ * some methods are {@link #getStockChanges(Integer)}
+ * some methods are {@link #getStockCandles(Long, String, Instant, Instant)}
+ * some methods are {@link #streamStockPrices(Set)}
+ * some methods are {@link #exportStocks(String, String)}
+ * some methods are {@link #importStocks(HttpServletRequest)}
  * */
 @RestController
 @RequestMapping("/api")
@@ -37,13 +90,43 @@ public class StockResource {
 
     private static final String ENTITY_NAME = "Stock";
 
+    private static final int MAX_SEARCH_SIZE = 100;
+
+    public static final String CHANGES_CURSOR_HEADER = "X-Changes-Cursor";
+
     @Value("${store.clientApp.name}")
     private String applicationName;
 
     private final StockService stockService;
 
-    public StockResource(StockService stockService) throws URISyntaxException {
+    private final StockImportService stockImportService;
+
+    private final StockHistoryService stockHistoryService;
+
+    private final StockChangeTracker stockChangeTracker;
+
+    private final StockNameIndex stockNameIndex;
+
+    private final StockTickBuffer stockTickBuffer;
+
+    private final StockPriceBroadcaster stockPriceBroadcaster;
+
+    private final StockSnapshot stockSnapshot;
+
+    private final ObjectMapper objectMapper;
+
+    public StockResource(StockService stockService, StockImportService stockImportService, StockHistoryService stockHistoryService,
+                         StockChangeTracker stockChangeTracker, StockNameIndex stockNameIndex, StockTickBuffer stockTickBuffer,
+                         StockPriceBroadcaster stockPriceBroadcaster, StockSnapshot stockSnapshot, ObjectMapper objectMapper) throws URISyntaxException {
         this.stockService = stockService;
+        this.stockImportService = stockImportService;
+        this.stockHistoryService = stockHistoryService;
+        this.stockChangeTracker = stockChangeTracker;
+        this.stockNameIndex = stockNameIndex;
+        this.stockTickBuffer = stockTickBuffer;
+        this.stockPriceBroadcaster = stockPriceBroadcaster;
+        this.stockSnapshot = stockSnapshot;
+        this.objectMapper = objectMapper;
     }
 
     @PostMapping("/stocks")
@@ -55,37 +138,303 @@ public class StockResource {
         StockDTO result = stockService.save(stockDTO);
         return ResponseEntity.created(new URI("/api/stocks/" + result.getId()))
                 .headers(HeaderUtil.createEntityCreationAlert(applicationName, true, ENTITY_NAME, result.getId().toString()))
+                .eTag(ETagUtil.toETag(result.getVersion()))
+                .body(result);
+    }
+
+    @PostMapping("/stocks/bulk")
+    public ResponseEntity<List<StockDTO>> createStocks(@RequestBody List<StockDTO> stockDTOs) {
+        log.debug("REST request to save {} Stocks", stockDTOs.size());
+        if (stockDTOs.stream().anyMatch(stockDTO -> stockDTO.getId() != null)) {
+            throw new BadRequestAlertException("A new stock cannot already have an ID", ENTITY_NAME, "idexists");
+        }
+        List<StockDTO> result = stockService.saveAll(stockDTOs);
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .headers(HeaderUtil.createEntityCreationAlert(applicationName, true, ENTITY_NAME, Integer.toString(result.size())))
                 .body(result);
     }
 
+    /**
+     * with If-Match the update only applies to the version carried by the ETag, 412 otherwise
+     */
     @PutMapping("/stocks/{id}")
-    public ResponseEntity<StockDTO> updateStock(@PathVariable Long id,@RequestParam BigDecimal currentPrice) throws URISyntaxException {
+    public ResponseEntity<StockDTO> updateStock(@PathVariable Long id,@RequestParam BigDecimal currentPrice,
+                                                @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) throws URISyntaxException {
         log.debug("REST request to update currentPrice :", id,currentPrice);
         if (id == null) {
             throw new BadRequestAlertException("Invalid id", ENTITY_NAME, "idnull");
         }
-        StockDTO result = stockService.save(id,currentPrice);
+        StockDTO result = stockService.save(id, currentPrice, ETagUtil.parseIfMatch(ifMatch, ENTITY_NAME));
         return ResponseEntity.ok()
                 .headers(HeaderUtil.createEntityUpdateAlert(applicationName, true, ENTITY_NAME,id.toString()))
+                .eTag(ETagUtil.toETag(result.getVersion()))
                 .body(result);
     }
 
+    @PutMapping("/stocks/prices")
+    public ResponseEntity<StockPriceUpdateResultDTO> updateStockPrices(@RequestBody List<StockPriceDTO> prices) {
+        log.debug("REST request to update prices of {} Stocks", prices.size());
+        StockPriceUpdateResultDTO result = stockService.updatePrices(prices);
+        return ResponseEntity.ok()
+                .headers(HeaderUtil.createEntityUpdateAlert(applicationName, true, ENTITY_NAME, Integer.toString(result.getUpdated().size())))
+                .body(result);
+    }
+
+    /**
+     * accepts price ticks into the coalescing buffer, they are written asynchronously.
+     * answers 503 with Retry-After and the rejected ids when the buffer is full
+     */
+    @PostMapping("/stocks/ticks")
+    public ResponseEntity<StockTickResultDTO> offerStockTicks(@RequestBody List<StockPriceDTO> ticks) {
+        log.debug("REST request to offer {} Stock ticks", ticks.size());
+        StockTickResultDTO result = stockTickBuffer.offer(ticks);
+        if (!result.getRejected().isEmpty()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").body(result);
+        }
+        return ResponseEntity.accepted().body(result);
+    }
+
+    /**
+     * offset paging by default, keyset paging when {@code after} is present (empty for the first page).
+     * keyset pages are sorted by id, or by name when requested with sort=name, and the
+     * Link header carries the cursor of the next page.
+     * answers 304 without querying the page when no stock changed since the ETag of the client, see
+     * {@link StockChangeTracker}. there is no Last-Modified, its one second resolution would answer 304 to changes
+     * made in the same second.
+     * both modes can be narrowed with the filters of {@link StockCriteria}, and to the comma separated
+     * {@code fields} which are then the only columns read, the others are null
+     */
     @GetMapping("/stocks")
-    public ResponseEntity<List<StockDTO>> getAllStocks(Pageable pageable) {
+    public ResponseEntity<List<StockDTO>> getAllStocks(StockCriteria criteria, Pageable pageable, @RequestParam(required = false) String after,
+                                                       @RequestParam(required = false) Set<String> fields, WebRequest webRequest) {
         log.debug("REST request to get all Stocks");
-        Page<StockDTO> page =  stockService.findAll(pageable);
+        String eTag = stockChangeTracker.getETag();
+        if (eTag != null && webRequest.checkNotModified(eTag)) {
+            return null;
+        }
+        if (after != null) {
+            StockCursor cursor = after.isEmpty()
+                    ? StockCursor.start(pageable.getSort().getOrderFor(StockCursor.SORT_NAME) != null ? StockCursor.SORT_NAME : StockCursor.SORT_ID)
+                    : StockCursor.decode(after);
+            Slice<StockDTO> slice = stockService.findAllAfter(cursor, criteria, pageable.getPageSize(), fields);
+            String next = slice.hasNext() ? StockCursor.after(cursor.getSort(), slice.getContent().get(slice.getNumberOfElements() - 1)).encode() : null;
+            HttpHeaders headers = PaginationUtil.generateCursorPaginationHttpHeaders(ServletUriComponentsBuilder.fromCurrentRequest(), next);
+            return ResponseEntity.ok().headers(headers).body(slice.getContent());
+        }
+        Page<StockDTO> page =  stockService.findAll(criteria, pageable, fields);
         HttpHeaders headers = PaginationUtil.generatePaginationHttpHeaders(ServletUriComponentsBuilder.fromCurrentRequest(), page);
         return ResponseEntity.ok().headers(headers).body(page.getContent());
     }
 
 
+    /**
+     * the ETag is the version and Last-Modified the modifiedDate of the stock, answers 304 when they still match
+     */
     @GetMapping("/stocks/{id}")
-    public ResponseEntity<StockDTO> getStock(@PathVariable Long id) {
+    public ResponseEntity<StockDTO> getStock(@PathVariable Long id, WebRequest webRequest) {
         log.debug("REST request to get Stock : {}", id);
         Optional<StockDTO> stockDTO = stockService.findOne(id);
+        if (stockDTO.isPresent() && webRequest.checkNotModified(ETagUtil.toETag(stockDTO.get().getVersion()), lastModified(stockDTO.get()))) {
+            return null;
+        }
         return ResponseUtil.wrapOrNotFound(stockDTO);
     }
 
+    /**
+     * lookup on the unique name index, conditional like {@link #getStock(Long, WebRequest)}. the ETag carries the id
+     * as well as the version, a stock deleted and created again under the same name starts over at version 0
+     */
+    @GetMapping("/stocks/by-name/{name}")
+    public ResponseEntity<StockDTO> getStockByName(@PathVariable String name, WebRequest webRequest) {
+        log.debug("REST request to get Stock by name : {}", name);
+        Optional<StockDTO> stockDTO = stockService.findOneByName(name);
+        if (stockDTO.isPresent() && webRequest.checkNotModified(ETagUtil.toETag(stockDTO.get().getId(), stockDTO.get().getVersion()),
+                lastModified(stockDTO.get()))) {
+            return null;
+        }
+        return ResponseUtil.wrapOrNotFound(stockDTO);
+    }
+
+    /**
+     * typeahead over stock names, case insensitive prefix match served from memory
+     */
+    @GetMapping("/stocks/search")
+    public ResponseEntity<List<StockNameDTO>> searchStocks(@RequestParam String prefix, @RequestParam(defaultValue = "10") int size) {
+        log.debug("REST request to search Stocks by prefix : {}", prefix);
+        if (size < 1) {
+            throw new BadRequestAlertException("Invalid size", ENTITY_NAME, "sizeinvalid");
+        }
+        return ResponseEntity.ok(stockNameIndex.search(prefix, Math.min(size, MAX_SEARCH_SIZE)));
+    }
+
+    /**
+     * id, name and price of every stock as one json document of columns served from memory, see {@link StockSnapshot}.
+     * the ETag changes with every change of the snapshot, answers 304 while it still matches
+     */
+    @GetMapping("/stocks/snapshot")
+    public ResponseEntity<byte[]> getStockSnapshot(WebRequest webRequest) {
+        log.debug("REST request to get the Stock snapshot");
+        StockSnapshot.Snapshot snapshot = stockSnapshot.current();
+        if (webRequest.checkNotModified(snapshot.getETag())) {
+            return null;
+        }
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(snapshot.getBody());
+    }
+
+    /**
+     * audited revisions of a stock in [from, to), oldest first. the Link header carries the
+     * revision to continue {@code after}
+     */
+    @GetMapping("/stocks/{id}/history")
+    public ResponseEntity<List<StockPriceHistoryDTO>> getStockHistory(@PathVariable Long id,
+                                                                      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+                                                                      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+                                                                      @RequestParam(required = false) Integer after, Pageable pageable) {
+        log.debug("REST request to get history of Stock : {}", id);
+        Slice<StockPriceHistoryDTO> slice = stockHistoryService.findHistory(id, from, to, after, pageable.getPageSize());
+        String next = slice.hasNext() ? slice.getContent().get(slice.getNumberOfElements() - 1).getRev().toString() : null;
+        HttpHeaders headers = PaginationUtil.generateCursorPaginationHttpHeaders(ServletUriComponentsBuilder.fromCurrentRequest(), next);
+        return ResponseEntity.ok().headers(headers).body(slice.getContent());
+    }
+
+    /**
+     * delta sync, streams as NDJSON the latest state of every stock created, updated or deleted (a tombstone)
+     * since the cursor. the cursor to continue with is in the X-Changes-Cursor header, changes near the end
+     * of a response may be delivered again on the next call. without a cursor only the current cursor is returned,
+     * take it before a full export and follow the changes from there
+     */
+    @GetMapping("/stocks/changes")
+    public ResponseEntity<StreamingResponseBody> getStockChanges(@RequestParam(required = false) Integer since) {
+        log.debug("REST request to get Stock changes since {}", since);
+        if (since != null && since < 0) {
+            throw new BadRequestAlertException("Invalid cursor", ENTITY_NAME, "cursorinvalid");
+        }
+        int cursor = stockHistoryService.findChangesCursor(since == null ? 0 : since);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(StockExportWriter.NDJSON_CONTENT_TYPE))
+                .header(CHANGES_CURSOR_HEADER, Integer.toString(cursor));
+        if (since == null) {
+            return response.build();
+        }
+        StreamingResponseBody body = out -> {
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+            ObjectWriter writer = objectMapper.writerFor(StockChangeDTO.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+            stockHistoryService.streamChanges(since, change -> {
+                try {
+                    writer.writeValue(generator, change);
+                    generator.writeRaw('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.flush();
+        };
+        return response.body(body);
+    }
+
+    /**
+     * open/high/low/close candles of a stock with interval 1m, 1h or 1d, aggregated from the audit trail
+     */
+    @GetMapping("/stocks/{id}/candles")
+    public ResponseEntity<List<CandleDTO>> getStockCandles(@PathVariable Long id, @RequestParam(defaultValue = "1m") String interval,
+                                                           @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+                                                           @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to) {
+        log.debug("REST request to get {} candles of Stock : {}", interval, id);
+        return ResponseEntity.ok(stockHistoryService.findCandles(id, CandleInterval.of(interval), from, to));
+    }
+
+
+    /**
+     * Server-Sent Events stream of committed price changes of the given stocks, of every stock without ids.
+     * every change is a {@code price} event with data {@code {"id":1,"currentPrice":12.5}}.
+     * slow clients receive the latest value per stock only, answers 503 when the subscriber cap is reached
+     */
+    @GetMapping(value = "/stocks/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamStockPrices(@RequestParam(required = false, defaultValue = "") Set<Long> ids) {
+        log.debug("REST request to stream prices of Stocks : {}", ids);
+        return stockPriceBroadcaster.subscribe(ids)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build());
+    }
+
+    /**
+     * streams every stock as NDJSON (default) or CSV with constant memory,
+     * gzip compressed when the client accepts it with a non zero q-value. the response varies by Accept-Encoding
+     */
+    @GetMapping("/stocks/export")
+    public ResponseEntity<StreamingResponseBody> exportStocks(@RequestParam(defaultValue = StockExportWriter.NDJSON) String format,
+                                                              @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        log.debug("REST request to export Stocks as {}", format);
+        boolean csv = StockExportWriter.CSV.equalsIgnoreCase(format);
+        if (!csv && !StockExportWriter.NDJSON.equalsIgnoreCase(format)) {
+            throw new BadRequestAlertException("Unsupported export format", ENTITY_NAME, "formatinvalid");
+        }
+        boolean gzip = acceptsGzip(acceptEncoding);
+        StreamingResponseBody body = out -> {
+            OutputStream target = gzip ? new GZIPOutputStream(out, 8192) : out;
+            StockExportWriter writer = csv ? StockExportWriter.csv(target) : StockExportWriter.ndjson(target, objectMapper);
+            stockService.exportAll(writer);
+            writer.finish();
+            if (gzip) {
+                ((GZIPOutputStream) target).finish();
+            }
+        };
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                .contentType(MediaType.parseMediaType(csv ? StockExportWriter.CSV_CONTENT_TYPE : StockExportWriter.NDJSON_CONTENT_TYPE));
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response.body(body);
+    }
+
+    /**
+     * whether the Accept-Encoding header allows gzip, by its own q-value or else by the one of {@code *}.
+     * a coding with q=0 is not acceptable
+     */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        double gzip = -1;
+        double any = -1;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                    try {
+                        q = Double.parseDouble(parameter.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if ("gzip".equals(name) || "x-gzip".equals(name)) {
+                gzip = q;
+            } else if ("*".equals(name)) {
+                any = q;
+            }
+        }
+        return gzip >= 0 ? gzip > 0 : any > 0;
+    }
+
+    /**
+     * upserts stocks by name from a CSV or NDJSON body which is parsed while it is read,
+     * broken lines are reported in the result instead of failing the request
+     */
+    @PostMapping(value = "/stocks/import", consumes = {StockExportWriter.CSV_CONTENT_TYPE, StockExportWriter.NDJSON_CONTENT_TYPE})
+    public ResponseEntity<StockImportResultDTO> importStocks(HttpServletRequest request) throws IOException {
+        log.debug("REST request to import Stocks as {}", request.getContentType());
+        String format = MediaType.parseMediaType(request.getContentType()).isCompatibleWith(MediaType.parseMediaType(StockExportWriter.CSV_CONTENT_TYPE))
+                ? StockImportService.CSV : StockImportService.NDJSON;
+        StockImportResultDTO result = stockImportService.importStocks(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8), format);
+        return ResponseEntity.ok()
+                .headers(HeaderUtil.createEntityUpdateAlert(applicationName, true, ENTITY_NAME, Long.toString(result.getCreated() + result.getUpdated())))
+                .body(result);
+    }
 
     @DeleteMapping("/stocks/{id}")
     public ResponseEntity<Void> deleteStock(@PathVariable Long id) {
@@ -94,4 +443,10 @@ public class StockResource {
         return ResponseEntity.noContent().headers(HeaderUtil.createEntityDeletionAlert(applicationName, true, ENTITY_NAME, id.toString())).build();
     }
 
+    private static long lastModified(StockDTO stockDTO) {
+        if (stockDTO.getModifiedDate() == null) {
+            return -1;
+        }
+        return stockDTO.getModifiedDate().toEpochMilli();
+    }
 }
@@ -3,6 +3,7 @@ package com.pay.coniq.web.rest.errors;
 import com.pay.coniq.web.rest.util.HeaderUtil;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.MethodArgumentNotValidException;
@@ -104,10 +105,13 @@ public class ExceptionTranslator implements ProblemHandling {
         return create(ex, request, HeaderUtil.createFailureAlert(applicationName, true, ex.getEntityName(), ex.getErrorKey(), ex.getMessage()));
     }
 
+    /**
+     * 412 when the request was conditional on an If-Match ETag, 409 otherwise
+     */
     @ExceptionHandler
     public ResponseEntity<Problem> handleConcurrencyFailure(ConcurrencyFailureException ex, NativeWebRequest request) {
         Problem problem = Problem.builder()
-                .withStatus(Status.CONFLICT)
+                .withStatus(request.getHeader(HttpHeaders.IF_MATCH) != null ? Status.PRECONDITION_FAILED : Status.CONFLICT)
                 .with(MESSAGE_KEY, ErrorConstants.ERR_CONCURRENCY_FAILURE)
                 .build();
         return create(ex, problem, request);
@@ -0,0 +1,61 @@
+package com.pay.coniq.web.rest.util;
+
+import com.pay.coniq.web.rest.errors.BadRequestAlertException;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * strong ETags of a single entity derived from its optimistic lock version
+ */
+public final class ETagUtil {
+
+    private static final String ANY = "*";
+
+    private ETagUtil() {
+    }
+
+    public static String toETag(Long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * ETag of an entity looked up by something else than its id, which may be a different entity the next time
+     */
+    public static String toETag(Long id, Long version) {
+        return "\"" + id + "-" + version + "\"";
+    }
+
+    /**
+     * returns the versions an If-Match header accepts, a comma separated list of ETags, null when the header is
+     * absent or {@code *}. weak ETags never match (RFC 7232 strong comparison), nor do ETags which are no version.
+     * 412 when none of them can match
+     */
+    public static Set<Long> parseIfMatch(String ifMatch, String entityName) {
+        if (ifMatch == null || ANY.equals(ifMatch.trim())) {
+            return null;
+        }
+        Set<Long> versions = new LinkedHashSet<>();
+        for (String value : ifMatch.split(",")) {
+            String etag = value.trim();
+            boolean weak = etag.startsWith("W/");
+            String opaque = weak ? etag.substring(2) : etag;
+            if (opaque.length() < 2 || !opaque.startsWith("\"") || !opaque.endsWith("\"")) {
+                throw new BadRequestAlertException("Invalid If-Match header", entityName, "ifmatchinvalid");
+            }
+            if (weak) {
+                continue;
+            }
+            try {
+                versions.add(Long.valueOf(opaque.substring(1, opaque.length() - 1)));
+            } catch (NumberFormatException e) {
+                // not one of ours, it never matches
+            }
+        }
+        if (versions.isEmpty()) {
+            throw new OptimisticLockingFailureException("ETags " + ifMatch + " do not match");
+        }
+        return versions;
+    }
+}
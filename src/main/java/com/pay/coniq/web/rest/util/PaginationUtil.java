@@ -32,6 +32,19 @@ public final class PaginationUtil {
         return headers;
     }
 
+    /**
+     * keyset pagination headers, only a next link carrying the opaque cursor and no total count
+     */
+    public static HttpHeaders generateCursorPaginationHttpHeaders(UriComponentsBuilder uriBuilder, String nextCursor) {
+        HttpHeaders headers = new HttpHeaders();
+        if (nextCursor != null) {
+            String uri = uriBuilder.replaceQueryParam("after", nextCursor).replaceQueryParam("page").toUriString()
+                    .replace(",", "%2C").replace(";", "%3B");
+            headers.add("Link", MessageFormat.format(HEADER_LINK_FORMAT, uri, "next"));
+        }
+        return headers;
+    }
+
     private static String prepareLink(UriComponentsBuilder uriBuilder, int pageNumber, int pageSize, String relType) {
         return MessageFormat.format("<{0}>; rel=\"{1}\"", preparePageUri(uriBuilder, pageNumber, pageSize), relType);
     }
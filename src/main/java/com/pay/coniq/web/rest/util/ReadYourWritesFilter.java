@@ -0,0 +1,110 @@
+package com.pay.coniq.web.rest.util;
+
+import com.pay.coniq.config.ReplicaRoutingDataSource;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.Duration;
+
+/**
+ * read-your-writes for clients of replica routing. A response to a request which wrote carries the time of the write
+ * in {@link #READ_TOKEN_HEADER}, a client sends the latest token it got back with its next requests and while
+ * the token is younger than store.datasource.read-your-writes-window its reads go to the primary.
+ * The token is a plain timestamp, a client can only use it to read from the primary for one window
+ */
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+    public static final String READ_TOKEN_HEADER = "X-Read-Token";
+
+    private final long windowMillis;
+
+    public ReadYourWritesFilter(Duration window) {
+        this.windowMillis = window.toMillis();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        ReplicaRoutingDataSource.beginSession(isRecent(request.getHeader(READ_TOKEN_HEADER)));
+        TokenResponse tokenResponse = new TokenResponse(response);
+        try {
+            filterChain.doFilter(request, tokenResponse);
+            tokenResponse.addToken();
+        } finally {
+            ReplicaRoutingDataSource.endSession();
+        }
+    }
+
+    private boolean isRecent(String token) {
+        if (token == null) {
+            return false;
+        }
+        try {
+            return Math.abs(System.currentTimeMillis() - Long.parseLong(token)) < windowMillis;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * adds the token before the response is committed, writes happen in the service before the body is written
+     */
+    private static final class TokenResponse extends HttpServletResponseWrapper {
+
+        private boolean added;
+
+        private TokenResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        private void addToken() {
+            if (!added && !isCommitted() && ReplicaRoutingDataSource.hasWritten()) {
+                setHeader(READ_TOKEN_HEADER, String.valueOf(System.currentTimeMillis()));
+                added = true;
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            addToken();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            addToken();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            addToken();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            addToken();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            addToken();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            addToken();
+            super.sendRedirect(location);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.pay.coniq.web.rest.util;
+
+import com.pay.coniq.repository.StatementStatistics;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * database share of every request, tagged like http.server.requests with method and uri pattern:
+ * store.request.statements (jdbc round trips), store.request.jdbc (time executing them) and
+ * store.request.audit (time of the envers audit inserts, only requests which write audit rows).
+ * the numbers come from {@link StatementStatistics} of the request thread, work of async dispatches is not included
+ */
+public class RequestMetricsFilter extends OncePerRequestFilter {
+
+    private static final String UNKNOWN = "UNKNOWN";
+
+    private final MeterRegistry meterRegistry;
+
+    public RequestMetricsFilter(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        StatementStatistics statistics = StatementStatistics.start();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            record(request, statistics);
+        }
+    }
+
+    private void record(HttpServletRequest request, StatementStatistics statistics) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String uri = pattern != null ? pattern.toString() : UNKNOWN;
+        String method = request.getMethod();
+        DistributionSummary.builder("store.request.statements")
+                .description("jdbc round trips per request, a batch counts once")
+                .tags("method", method, "uri", uri)
+                .register(meterRegistry)
+                .record(statistics.getStatements());
+        Timer.builder("store.request.jdbc")
+                .description("time per request executing jdbc statements")
+                .tags("method", method, "uri", uri)
+                .register(meterRegistry)
+                .record(statistics.getExecutionNanos(), TimeUnit.NANOSECONDS);
+        if (statistics.getAuditStatements() > 0) {
+            Timer.builder("store.request.audit")
+                    .description("time per request executing envers audit inserts")
+                    .tags("method", method, "uri", uri)
+                    .register(meterRegistry)
+                    .record(statistics.getAuditNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.pay.coniq.web.rest.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.pay.coniq.service.dto.StockDTO;
+import com.pay.coniq.service.mapper.StockMapper;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * writes {@link StockDTO} field by field straight to the generator, registered in {@link com.pay.coniq.config.JacksonConfig}.
+ * dates are written as {@link StockMapper#DATE_FORMAT}, as ISO instants with {@code dateFormat=iso} or as epoch millis
+ * with {@code dateFormat=epoch} on the request. the format is resolved once per written value, a whole page shares it.
+ * outside of a request (exports, the price stream) the default format is used
+ */
+public class StockDTOSerializer extends StdSerializer<StockDTO> {
+
+    public static final String DATE_FORMAT_PARAM = "dateFormat";
+
+    public static final String DATE_FORMAT_ISO = "iso";
+
+    public static final String DATE_FORMAT_EPOCH = "epoch";
+
+    private static final Object DATE_FORMAT_ATTRIBUTE = StockDTOSerializer.class;
+
+    /**
+     * short month names of the locale of {@link StockMapper#DATE_FORMATTER}
+     */
+    private static final String[] MONTHS = new String[12];
+
+    static {
+        DateTimeFormatter month = DateTimeFormatter.ofPattern("MMM", StockMapper.DATE_FORMATTER.getLocale());
+        for (int i = 0; i < MONTHS.length; i++) {
+            MONTHS[i] = month.format(Month.of(i + 1));
+        }
+    }
+
+    public StockDTOSerializer() {
+        super(StockDTO.class);
+    }
+
+    @Override
+    public void serialize(StockDTO stock, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        String dateFormat = dateFormat(provider);
+        char[] buffer = new char[32];
+        gen.writeStartObject(stock);
+        if (stock.getId() == null) {
+            gen.writeNullField("id");
+        } else {
+            gen.writeNumberField("id", stock.getId());
+        }
+        gen.writeStringField("name", stock.getName());
+        if (stock.getCurrentPrice() == null) {
+            gen.writeNullField("currentPrice");
+        } else {
+            gen.writeNumberField("currentPrice", stock.getCurrentPrice());
+        }
+        if (stock.getVersion() == null) {
+            gen.writeNullField("version");
+        } else {
+            gen.writeNumberField("version", stock.getVersion());
+        }
+        writeDate(gen, "createdDate", stock.getCreatedDate(), dateFormat, buffer);
+        writeDate(gen, "modifiedDate", stock.getModifiedDate(), dateFormat, buffer);
+        gen.writeEndObject();
+    }
+
+    private static void writeDate(JsonGenerator gen, String field, Instant date, String dateFormat, char[] buffer) throws IOException {
+        if (date == null) {
+            gen.writeNullField(field);
+        } else if (DATE_FORMAT_EPOCH.equals(dateFormat)) {
+            gen.writeNumberField(field, date.toEpochMilli());
+        } else if (DATE_FORMAT_ISO.equals(dateFormat)) {
+            gen.writeStringField(field, DateTimeFormatter.ISO_INSTANT.format(date));
+        } else {
+            gen.writeFieldName(field);
+            writePattern(gen, date, buffer);
+        }
+    }
+
+    /**
+     * {@link StockMapper#DATE_FORMAT} written digit by digit, {@link DateTimeFormatter} allocates a lot per call
+     */
+    private static void writePattern(JsonGenerator gen, Instant date, char[] buffer) throws IOException {
+        LocalDateTime time = LocalDateTime.ofInstant(date, StockMapper.DATE_FORMATTER.getZone());
+        if (time.getYear() < 1000 || time.getYear() > 9999) {
+            gen.writeString(StockMapper.DATE_FORMATTER.format(date));
+            return;
+        }
+        int i = digits(buffer, 0, time.getYear(), 4);
+        buffer[i++] = ' ';
+        String month = MONTHS[time.getMonthValue() - 1];
+        month.getChars(0, month.length(), buffer, i);
+        i += month.length();
+        buffer[i++] = ' ';
+        i = digits(buffer, i, time.getDayOfMonth(), 2);
+        buffer[i++] = ' ';
+        i = digits(buffer, i, time.getHour(), 2);
+        buffer[i++] = ':';
+        i = digits(buffer, i, time.getMinute(), 2);
+        buffer[i++] = ':';
+        i = digits(buffer, i, time.getSecond(), 2);
+        buffer[i++] = '.';
+        i = digits(buffer, i, time.getNano() / 1_000_000, 3);
+        gen.writeString(buffer, 0, i);
+    }
+
+    private static int digits(char[] buffer, int offset, int value, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return offset + width;
+    }
+
+    private static String dateFormat(SerializerProvider provider) {
+        String dateFormat = (String) provider.getAttribute(DATE_FORMAT_ATTRIBUTE);
+        if (dateFormat == null) {
+            RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+            String requested = attributes instanceof ServletRequestAttributes
+                    ? ((ServletRequestAttributes) attributes).getRequest().getParameter(DATE_FORMAT_PARAM) : null;
+            dateFormat = requested == null ? "" : requested;
+            provider.setAttribute(DATE_FORMAT_ATTRIBUTE, dateFormat);
+        }
+        return dateFormat;
+    }
+}
@@ -0,0 +1,129 @@
+package com.pay.coniq.web.rest.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.pay.coniq.service.dto.StockDTO;
+import com.pay.coniq.service.mapper.StockMapper;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * writes exported stocks one row at a time straight to an output stream, nothing is buffered
+ * beyond the underlying writer. IO failures are rethrown as {@link UncheckedIOException} so the
+ * writer can be used as a {@link Consumer}. {@link #finish()} flushes but never closes the stream
+ */
+public abstract class StockExportWriter implements Consumer<StockDTO> {
+
+    public static final String NDJSON = "ndjson";
+    public static final String CSV = "csv";
+
+    public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+    public static final String CSV_CONTENT_TYPE = "text/csv";
+
+    public static StockExportWriter ndjson(OutputStream out, ObjectMapper objectMapper) throws IOException {
+        return new NdjsonWriter(out, objectMapper);
+    }
+
+    public static StockExportWriter csv(OutputStream out) throws IOException {
+        return new CsvWriter(out);
+    }
+
+    @Override
+    public void accept(StockDTO stock) {
+        try {
+            write(stock);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    protected abstract void write(StockDTO stock) throws IOException;
+
+    public abstract void finish() throws IOException;
+
+    private static final class NdjsonWriter extends StockExportWriter {
+
+        private final JsonGenerator generator;
+
+        private final ObjectWriter objectWriter;
+
+        private NdjsonWriter(OutputStream out, ObjectMapper objectMapper) throws IOException {
+            this.generator = objectMapper.getFactory().createGenerator(out);
+            // rows are separated by the newline alone, not by the default space between root values
+            this.generator.setRootValueSeparator(null);
+            this.objectWriter = objectMapper.writerFor(StockDTO.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        }
+
+        @Override
+        protected void write(StockDTO stock) throws IOException {
+            objectWriter.writeValue(generator, stock);
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            generator.flush();
+        }
+    }
+
+    private static final class CsvWriter extends StockExportWriter {
+
+        private final Writer writer;
+
+        private CsvWriter(OutputStream out) throws IOException {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.write("id,name,currentPrice,createdDate,modifiedDate\n");
+        }
+
+        @Override
+        protected void write(StockDTO stock) throws IOException {
+            writer.write(String.valueOf(stock.getId()));
+            writer.write(',');
+            writeEscaped(stock.getName());
+            writer.write(',');
+            writer.write(stock.getCurrentPrice() == null ? "" : stock.getCurrentPrice().toPlainString());
+            writer.write(',');
+            writeDate(stock.getCreatedDate());
+            writer.write(',');
+            writeDate(stock.getModifiedDate());
+            writer.write('\n');
+        }
+
+        private void writeDate(Instant date) throws IOException {
+            if (date != null) {
+                StockMapper.DATE_FORMATTER.formatTo(date, writer);
+            }
+        }
+
+        /**
+         * RFC 4180 quoting, only when the value needs it
+         */
+        private void writeEscaped(String value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+                writer.write(value);
+                return;
+            }
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            writer.flush();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.pay.coniq.web.rest.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * json converter which times writing response bodies as store.http.serialization, tagged with the uri pattern.
+ * includes writing to the response stream, so a slow client shows up here too
+ */
+public class TimedJacksonHttpMessageConverter extends MappingJackson2HttpMessageConverter {
+
+    private static final String UNKNOWN = "UNKNOWN";
+
+    private final MeterRegistry meterRegistry;
+
+    public TimedJacksonHttpMessageConverter(ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        super(objectMapper);
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+            throws IOException, HttpMessageNotWritableException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            super.writeInternal(object, type, outputMessage);
+        } finally {
+            sample.stop(Timer.builder("store.http.serialization")
+                    .description("time to serialize and write a json response body")
+                    .tag("uri", uri())
+                    .register(meterRegistry));
+        }
+    }
+
+    private static String uri() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        Object pattern = attributes != null
+                ? attributes.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST)
+                : null;
+        return pattern != null ? pattern.toString() : UNKNOWN;
+    }
+}
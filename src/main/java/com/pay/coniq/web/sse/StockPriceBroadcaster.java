@@ -0,0 +1,321 @@
+package com.pay.coniq.web.sse;
+
+import com.pay.coniq.service.dto.StockPriceDTO;
+import com.pay.coniq.service.event.StockChangedEvent;
+import com.pay.coniq.service.event.StockChangesEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * pushes committed stock price changes to Server-Sent Events subscribers as {@code price} events whose data is
+ * a {@link StockPriceDTO}, {@code {"id":1,"currentPrice":12.5}}, the same for single and bulk updates.
+ * every subscriber owns a map of pending updates keyed by stock id, so a slow consumer only
+ * ever holds the latest value per stock instead of an unbounded queue. the map is drained on a
+ * small shared pool, at most one drain per subscriber is in flight and a drain sends only what was pending
+ * when it started before it is rescheduled behind the other subscribers.
+ * a subscriber whose send blocks longer than store.stream.send-timeout milliseconds is dropped and its emitter is
+ * completed with a {@link SendTimeoutException} as soon as the send returns. the pool gets a thread in place of the
+ * blocked one until the container's write timeout fails the send, at most store.stream.max-extra-threads of them
+ * however many subscribers are blocked.
+ * the number of subscribers is capped by store.stream.max-subscribers and every subscriber
+ * receives a heartbeat comment each store.stream.heartbeat-interval milliseconds
+ */
+@Component
+public class StockPriceBroadcaster {
+
+    private static final String EVENT_NAME = "price";
+
+    private final Logger log = LoggerFactory.getLogger(StockPriceBroadcaster.class);
+
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+
+    private final ThreadPoolExecutor executor;
+
+    private final int maxSubscribers;
+
+    private final long timeout;
+
+    private final long sendTimeout;
+
+    private final int maxExtraThreads;
+
+    private int extraThreads;
+
+    private final Counter dropped;
+
+    public StockPriceBroadcaster(MeterRegistry meterRegistry,
+                                 @Value("${store.stream.max-subscribers:1000}") int maxSubscribers,
+                                 @Value("${store.stream.timeout:1800000}") long timeout,
+                                 @Value("${store.stream.threads:4}") int threads,
+                                 @Value("${store.stream.send-timeout:5000}") long sendTimeout,
+                                 @Value("${store.stream.max-extra-threads:4}") int maxExtraThreads) {
+        this.maxSubscribers = maxSubscribers;
+        this.timeout = timeout;
+        this.sendTimeout = sendTimeout;
+        this.maxExtraThreads = maxExtraThreads;
+        this.executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("stock-stream-"));
+        Gauge.builder("store.stream.subscribers", subscriberCount, AtomicInteger::get)
+                .register(meterRegistry);
+        this.dropped = meterRegistry.counter("store.stream.dropped");
+    }
+
+    /**
+     * subscribes to price changes of the given stocks, of every stock when ids is empty.
+     * empty when the subscriber cap is reached
+     */
+    public Optional<SseEmitter> subscribe(Set<Long> ids) {
+        int current;
+        do {
+            current = subscriberCount.get();
+            if (current >= maxSubscribers) {
+                return Optional.empty();
+            }
+        } while (!subscriberCount.compareAndSet(current, current + 1));
+        SseEmitter emitter = new SseEmitter(timeout);
+        Subscriber subscriber = new Subscriber(emitter, ids);
+        emitter.onCompletion(() -> remove(subscriber));
+        emitter.onTimeout(() -> remove(subscriber));
+        emitter.onError(e -> remove(subscriber));
+        subscribers.add(subscriber);
+        return Optional.of(emitter);
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onStockChanged(StockChangesEvent event) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        for (Subscriber subscriber : subscribers) {
+            boolean changed = false;
+            for (StockChangedEvent change : event.getChanges()) {
+                if (change.getStock() != null && (subscriber.ids.isEmpty() || subscriber.ids.contains(change.getId()))) {
+                    subscriber.pending.put(change.getId(), change.getStock().getCurrentPrice());
+                    changed = true;
+                }
+            }
+            if (changed) {
+                schedule(subscriber);
+            }
+        }
+    }
+
+    /**
+     * drops subscribers whose send has been blocked for longer than the send timeout. the blocked thread can not
+     * be taken back until the send fails, so the pool grows by one thread for every blocked send meanwhile, up to
+     * the cap of extra threads. the emitter is not completed here, the blocked send holds its monitor and
+     * completing it would park the scheduler thread as well
+     */
+    @Scheduled(fixedDelayString = "${store.stream.send-timeout:5000}")
+    public void dropBlocked() {
+        long now = System.currentTimeMillis();
+        for (Subscriber subscriber : subscribers) {
+            long sendingSince = subscriber.sendingSince;
+            if (sendingSince != 0 && now - sendingSince > sendTimeout && !subscriber.blocked) {
+                log.debug("Dropping Stock price subscriber blocked for {} ms", now - sendingSince);
+                subscriber.blocked = true;
+                remove(subscriber);
+                dropped.increment();
+                if (!compensate(subscriber)) {
+                    log.warn("Stock price pool has {} extra threads for blocked subscribers already", maxExtraThreads);
+                }
+                // The send may have returned before it saw the flag
+                if (subscriber.sendingSince == 0) {
+                    release(subscriber);
+                    close(subscriber);
+                }
+            }
+        }
+    }
+
+    @Scheduled(fixedRateString = "${store.stream.heartbeat-interval:15000}")
+    public void heartbeat() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.heartbeatDue = true;
+            schedule(subscriber);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+    }
+
+    private void schedule(Subscriber subscriber) {
+        if (subscriber.draining.compareAndSet(false, true)) {
+            executor.execute(() -> drain(subscriber));
+        }
+    }
+
+    /**
+     * sends the heartbeat and the updates pending when it starts, each at most once
+     */
+    private void drain(Subscriber subscriber) {
+        try {
+            if (subscriber.heartbeatDue) {
+                subscriber.heartbeatDue = false;
+                send(subscriber, SseEmitter.event().comment("heartbeat"));
+            }
+            for (Long id : new ArrayList<>(subscriber.pending.keySet())) {
+                BigDecimal currentPrice = subscriber.pending.remove(id);
+                if (currentPrice != null && !subscriber.blocked) {
+                    send(subscriber, SseEmitter.event().name(EVENT_NAME).id(id.toString())
+                            .data(new StockPriceDTO().id(id).currentPrice(currentPrice)));
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Dropping Stock price subscriber : {}", e.getMessage());
+            subscriber.emitter.completeWithError(e);
+            remove(subscriber);
+            return;
+        } finally {
+            subscriber.draining.set(false);
+        }
+        if (subscriber.blocked) {
+            close(subscriber);
+        } else if (!subscriber.pending.isEmpty() || subscriber.heartbeatDue) {
+            schedule(subscriber);
+        }
+    }
+
+    private void send(Subscriber subscriber, SseEmitter.SseEventBuilder event) throws IOException {
+        subscriber.sendingSince = System.currentTimeMillis();
+        try {
+            subscriber.emitter.send(event);
+        } finally {
+            subscriber.sendingSince = 0;
+            if (subscriber.blocked) {
+                release(subscriber);
+            }
+        }
+    }
+
+    /**
+     * adds a thread in place of the one blocked by the subscriber unless the cap of extra threads is reached
+     */
+    private synchronized boolean compensate(Subscriber subscriber) {
+        if (extraThreads >= maxExtraThreads) {
+            return false;
+        }
+        extraThreads++;
+        subscriber.compensated = true;
+        resize(1);
+        return true;
+    }
+
+    /**
+     * gives back the thread added for a blocked subscriber, once
+     */
+    private synchronized void release(Subscriber subscriber) {
+        if (subscriber.compensated && subscriber.released.compareAndSet(false, true)) {
+            extraThreads--;
+            resize(-1);
+        }
+    }
+
+    /**
+     * completes the emitter of a dropped subscriber with an error, once
+     */
+    private void close(Subscriber subscriber) {
+        if (subscriber.closed.compareAndSet(false, true)) {
+            subscriber.emitter.completeWithError(new SendTimeoutException(sendTimeout));
+        }
+    }
+
+    /**
+     * grows or shrinks the pool, the maximum is raised before and lowered after the core size
+     */
+    private void resize(int delta) {
+        int size = executor.getCorePoolSize() + delta;
+        if (delta > 0) {
+            executor.setMaximumPoolSize(size);
+            executor.setCorePoolSize(size);
+        } else {
+            executor.setCorePoolSize(size);
+            executor.setMaximumPoolSize(size);
+        }
+    }
+
+    private void remove(Subscriber subscriber) {
+        if (subscribers.remove(subscriber)) {
+            subscriberCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * the error a subscriber whose send blocked for too long is completed with
+     */
+    static final class SendTimeoutException extends IOException {
+
+        private SendTimeoutException(long sendTimeout) {
+            super("Send blocked for more than " + sendTimeout + " ms");
+        }
+    }
+
+    private static final class Subscriber {
+
+        private final SseEmitter emitter;
+
+        private final Set<Long> ids;
+
+        /**
+         * latest price by stock id
+         */
+        private final Map<Long, BigDecimal> pending = new ConcurrentHashMap<>();
+
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        private volatile boolean heartbeatDue;
+
+        /**
+         * start of the send in flight, 0 when none is
+         */
+        private volatile long sendingSince;
+
+        /**
+         * dropped by {@link #dropBlocked()}, released once its blocked send returned the extra pool thread
+         */
+        private volatile boolean blocked;
+
+        /**
+         * an extra pool thread was added for the blocked send
+         */
+        private boolean compensated;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Subscriber(SseEmitter emitter, Set<Long> ids) {
+            this.emitter = emitter;
+            this.ids = ids;
+        }
+    }
+}
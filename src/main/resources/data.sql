@@ -1,2 +1,3 @@
-INSERT INTO stock (name,current_price,CREATED_DATE,modified_date) VALUES ('p1',1,CURRENT_TIMESTAMP(),CURRENT_TIMESTAMP());
-INSERT INTO stock (name,current_price,CREATED_DATE,modified_date) VALUES ('p2',100,CURRENT_TIMESTAMP(),CURRENT_TIMESTAMP());
+INSERT INTO stock (id,name,current_price,version,CREATED_DATE,modified_date) VALUES (NEXT VALUE FOR stock_seq,'p1',1,0,CURRENT_TIMESTAMP(),CURRENT_TIMESTAMP());
+INSERT INTO stock (id,name,current_price,version,CREATED_DATE,modified_date) VALUES (NEXT VALUE FOR stock_seq,'p2',100,0,CURRENT_TIMESTAMP(),CURRENT_TIMESTAMP());
+CREATE INDEX IF NOT EXISTS revinfo_revtstmp_idx ON revinfo (revtstmp);
@@ -0,0 +1,87 @@
+package com.pay.coniq.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.IntConsumer;
+
+/**
+ * warmup and measured loop shared by the benchmark ITests. time and the bytes allocated by the calling thread
+ * are only summed over the measured iterations, which get the iteration number after the warmup ones
+ */
+final class BenchmarkLoop {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private BenchmarkLoop() {
+    }
+
+    /**
+     * measures the loop as a whole, for operations too short to be timed one by one
+     */
+    static Result run(int warmup, int iterations, IntConsumer operation) {
+        for (int i = 0; i < warmup; i++) {
+            operation.accept(i);
+        }
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            operation.accept(warmup + i);
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        return new Result(iterations, elapsedNanos, THREADS.getThreadAllocatedBytes(thread) - allocatedBefore);
+    }
+
+    /**
+     * measures every operation on its own, change runs before each of them and is not measured
+     */
+    static Result run(int warmup, int iterations, IntConsumer change, IntConsumer operation) {
+        for (int i = 0; i < warmup; i++) {
+            change.accept(i);
+            operation.accept(i);
+        }
+        long thread = Thread.currentThread().getId();
+        long allocated = 0;
+        long elapsedNanos = 0;
+        for (int i = 0; i < iterations; i++) {
+            change.accept(warmup + i);
+            long allocatedBefore = THREADS.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            operation.accept(warmup + i);
+            elapsedNanos += System.nanoTime() - start;
+            allocated += THREADS.getThreadAllocatedBytes(thread) - allocatedBefore;
+        }
+        return new Result(iterations, elapsedNanos, allocated);
+    }
+
+    static final class Result {
+
+        private final int iterations;
+
+        private final long elapsedNanos;
+
+        private final long allocatedBytes;
+
+        private Result(int iterations, long elapsedNanos, long allocatedBytes) {
+            this.iterations = iterations;
+            this.elapsedNanos = elapsedNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        long elapsedMillis() {
+            return elapsedNanos / 1_000_000;
+        }
+
+        long microsPerOperation() {
+            return elapsedNanos / iterations / 1000;
+        }
+
+        long operationsPerSecond() {
+            return iterations * 1_000_000_000L / elapsedNanos;
+        }
+
+        long kilobytesPerOperation() {
+            return allocatedBytes / iterations / 1024;
+        }
+    }
+}
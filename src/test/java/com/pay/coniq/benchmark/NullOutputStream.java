@@ -0,0 +1,22 @@
+package com.pay.coniq.benchmark;
+
+import java.io.OutputStream;
+
+/**
+ * discards everything, so serialization benchmarks measure no I/O
+ */
+final class NullOutputStream extends OutputStream {
+
+    static final NullOutputStream INSTANCE = new NullOutputStream();
+
+    private NullOutputStream() {
+    }
+
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+}
@@ -0,0 +1,121 @@
+package com.pay.coniq.benchmark;
+
+import com.pay.coniq.StoreApp;
+import com.pay.coniq.repository.StockReadRepository;
+import com.pay.coniq.repository.StockRepository;
+import com.pay.coniq.service.StockService;
+import com.pay.coniq.service.dto.StockCriteria;
+import com.pay.coniq.service.dto.StockDTO;
+import com.pay.coniq.service.mapper.StockMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Allocation and latency per page of the {@link StockService} list read path, the projections of
+ * {@link StockReadRepository} against a baseline of {@link StockRepository} entities mapped by {@link StockMapper}.
+ * Allocation is measured on the reading thread, run with {@code mvn -Pdev,benchmark test} against H2 or
+ * {@code mvn -Pprod,benchmark test} against MySQL, the page size can be changed with {@code -Dbenchmark.page-size=}.
+ */
+@Tag("benchmark")
+@SpringBootTest(classes = StoreApp.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class StockReadBenchmarkITest {
+
+    private static final Logger log = LoggerFactory.getLogger(StockReadBenchmarkITest.class);
+
+    private static final String NAME_PREFIX = "bench-read-";
+
+    private static final int PAGE_SIZE = Integer.getInteger("benchmark.page-size", 100);
+
+    private static final int PAGES = 50;
+
+    private static final int WARMUP = 500;
+
+    private static final int ITERATIONS = 2000;
+
+    @Autowired
+    private StockService stockService;
+
+    @Autowired
+    private StockRepository stockRepository;
+
+    @Autowired
+    private StockMapper stockMapper;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeAll
+    public void createStocks() {
+        List<StockDTO> stocks = new ArrayList<>(PAGE_SIZE * PAGES);
+        for (int i = 0; i < PAGE_SIZE * PAGES; i++) {
+            stocks.add(new StockDTO().name(NAME_PREFIX + i).currentPrice(BigDecimal.valueOf(i, 2)));
+        }
+        stockService.saveAll(stocks);
+    }
+
+    @AfterAll
+    public void cleanup() {
+        jdbcTemplate.update("delete from stock where name like ?", NAME_PREFIX + "%");
+    }
+
+    @Test
+    public void entityPage() {
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        run("entity page", pageable -> readOnly.execute(status -> stockRepository.findAll(pageable).map(stockMapper::toDto)));
+    }
+
+    @Test
+    public void projectedPage() {
+        StockCriteria criteria = new StockCriteria();
+        run("projected page", pageable -> stockService.findAll(criteria, pageable, StockReadRepository.FIELDS));
+    }
+
+    @Test
+    public void projectedPageOfNames() {
+        StockCriteria criteria = new StockCriteria();
+        Set<String> fields = new HashSet<>(Arrays.asList("id", "name"));
+        run("projected page (id, name)", pageable -> stockService.findAll(criteria, pageable, fields));
+    }
+
+    private void run(String name, Function<Pageable, Page<StockDTO>> read) {
+        AtomicInteger rows = new AtomicInteger();
+        BenchmarkLoop.Result result = BenchmarkLoop.run(WARMUP, ITERATIONS, i -> rows.addAndGet(read.apply(page(i)).getNumberOfElements()));
+        log.info("{}: {} pages of {} in {} ms, {} us/page, {} KB allocated/page", name, ITERATIONS, PAGE_SIZE, result.elapsedMillis(),
+                result.microsPerOperation(), result.kilobytesPerOperation());
+        assertThat(rows.get()).isEqualTo((WARMUP + ITERATIONS) * PAGE_SIZE);
+    }
+
+    private static Pageable page(int i) {
+        return PageRequest.of(i % PAGES, PAGE_SIZE, Sort.by("id"));
+    }
+}
@@ -0,0 +1,112 @@
+package com.pay.coniq.benchmark;
+
+import com.pay.coniq.StoreApp;
+import com.pay.coniq.repository.StockRepository;
+import com.pay.coniq.service.StockService;
+import com.pay.coniq.service.dto.StockDTO;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntConsumer;
+
+/**
+ * Read throughput of single stocks by id and of pages with store.stock.second-level-cache=true, each read in its own
+ * transaction like a request. The cache-off numbers come from the same context with {@link CacheMode#IGNORE},
+ * which neither reads nor fills the entity and query caches. Run with {@code mvn -Pdev,benchmark test} against H2
+ * or {@code mvn -Pprod,benchmark test} against MySQL, where a cache hit also saves the network round trip.
+ */
+@Tag("benchmark")
+@SpringBootTest(classes = StoreApp.class, properties = "store.stock.second-level-cache=true")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class StockSecondLevelCacheBenchmarkITest {
+
+    private static final Logger log = LoggerFactory.getLogger(StockSecondLevelCacheBenchmarkITest.class);
+
+    private static final String NAME_PREFIX = "bench-l2-";
+
+    private static final int ROWS = Integer.getInteger("benchmark.rows", 5000);
+
+    private static final int PAGE_SIZE = 20;
+
+    private static final int WARMUP = 20000;
+
+    private static final int ITERATIONS = 50000;
+
+    @Autowired
+    private StockService stockService;
+
+    @Autowired
+    private StockRepository stockRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private EntityManager em;
+
+    private final List<Long> ids = new ArrayList<>();
+
+    @BeforeAll
+    public void createStocks() {
+        List<StockDTO> stocks = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            stocks.add(new StockDTO().name(NAME_PREFIX + i).currentPrice(BigDecimal.valueOf(i, 2)));
+        }
+        stockService.saveAll(stocks).forEach(stock -> ids.add(stock.getId()));
+    }
+
+    @AfterAll
+    public void cleanup() {
+        jdbcTemplate.update("delete from stock where name like ?", NAME_PREFIX + "%");
+    }
+
+    @Test
+    public void findById() {
+        Random random = new Random(42);
+        IntConsumer read = i -> stockRepository.findById(ids.get(random.nextInt(ids.size()))).orElseThrow();
+        run("findById cache off", CacheMode.IGNORE, read);
+        run("findById cache on", CacheMode.NORMAL, read);
+    }
+
+    @Test
+    public void findPage() {
+        int pages = ROWS / PAGE_SIZE;
+        IntConsumer read = i -> stockRepository.findAll(PageRequest.of(i % pages, PAGE_SIZE, Sort.by("id")));
+        run("findAll page cache off", CacheMode.IGNORE, read);
+        run("findAll page cache on", CacheMode.NORMAL, read);
+    }
+
+    private void run(String name, CacheMode cacheMode, IntConsumer read) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        IntConsumer transaction = i -> transactionTemplate.executeWithoutResult(status -> {
+            em.unwrap(Session.class).setCacheMode(cacheMode);
+            read.accept(i);
+        });
+        BenchmarkLoop.Result result = BenchmarkLoop.run(WARMUP, ITERATIONS, transaction);
+        log.info("{}: {} reads in {} ms, {} reads/s, {} us/read", name, ITERATIONS, result.elapsedMillis(),
+                result.operationsPerSecond(), result.microsPerOperation());
+    }
+}
@@ -0,0 +1,99 @@
+package com.pay.coniq.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pay.coniq.StoreApp;
+import com.pay.coniq.domain.Stock;
+import com.pay.coniq.service.dto.StockDTO;
+import com.pay.coniq.service.mapper.StockMapper;
+import com.pay.coniq.web.rest.util.StockDTOSerializer;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Allocation and latency of mapping and serializing one page of {@link StockDTO}, without any database access.
+ * Run with {@code mvn -Pdev,benchmark test}, the page size can be changed with {@code -Dbenchmark.page-size=}.
+ */
+@Tag("benchmark")
+@SpringBootTest(classes = StoreApp.class)
+public class StockSerializationBenchmarkITest {
+
+    private static final Logger log = LoggerFactory.getLogger(StockSerializationBenchmarkITest.class);
+
+    private static final int PAGE_SIZE = Integer.getInteger("benchmark.page-size", 10000);
+
+    private static final int WARMUP = 50;
+
+    private static final int ITERATIONS = 200;
+
+    @Autowired
+    private StockMapper stockMapper;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    public void mapPage() {
+        List<Stock> stocks = createStocks();
+        run("map page", () -> stockMapper.toDto(stocks));
+    }
+
+    @Test
+    public void serializePage() {
+        List<StockDTO> stocks = stockMapper.toDto(createStocks());
+        run("serialize page", () -> write(stocks));
+    }
+
+    @Test
+    public void serializePageAsEpochMillis() {
+        List<StockDTO> stocks = stockMapper.toDto(createStocks());
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter(StockDTOSerializer.DATE_FORMAT_PARAM, StockDTOSerializer.DATE_FORMAT_EPOCH);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        try {
+            run("serialize page (epoch millis)", () -> write(stocks));
+        } finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+    }
+
+    private void write(List<StockDTO> stocks) {
+        try {
+            objectMapper.writeValue(NullOutputStream.INSTANCE, stocks);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void run(String name, Runnable page) {
+        BenchmarkLoop.Result result = BenchmarkLoop.run(WARMUP, ITERATIONS, i -> page.run());
+        log.info("{}: {} pages of {} in {} ms, {} us/page, {} KB allocated/page", name, ITERATIONS, PAGE_SIZE, result.elapsedMillis(),
+                result.microsPerOperation(), result.kilobytesPerOperation());
+    }
+
+    private static List<Stock> createStocks() {
+        List<Stock> stocks = new ArrayList<>(PAGE_SIZE);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            Stock stock = new Stock().name("bench-" + i).currentPrice(BigDecimal.valueOf(i, 2));
+            stock.setId((long) i);
+            stock.setVersion(0L);
+            stock.setCreatedDate(new Timestamp(now - i * 1000L));
+            stock.setModifiedDate(new Timestamp(now));
+            stocks.add(stock);
+        }
+        return stocks;
+    }
+}
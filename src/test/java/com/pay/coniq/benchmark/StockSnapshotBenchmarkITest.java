@@ -0,0 +1,115 @@
+package com.pay.coniq.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pay.coniq.StoreApp;
+import com.pay.coniq.service.StockService;
+import com.pay.coniq.service.StockSnapshot;
+import com.pay.coniq.service.dto.StockDTO;
+import com.pay.coniq.service.dto.StockPriceDTO;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Allocation and latency of reading the whole universe, once by exporting every stock and serializing it with
+ * jackson and once from {@link StockSnapshot}, unchanged and with a price update before every read so each read
+ * rebuilds the document. Run with {@code mvn -Pdev,benchmark test}, the universe size can be changed with
+ * {@code -Dbenchmark.rows=}.
+ */
+@Tag("benchmark")
+@SpringBootTest(classes = StoreApp.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class StockSnapshotBenchmarkITest {
+
+    private static final Logger log = LoggerFactory.getLogger(StockSnapshotBenchmarkITest.class);
+
+    private static final String NAME_PREFIX = "bench-snapshot-";
+
+    private static final int ROWS = Integer.getInteger("benchmark.rows", 10000);
+
+    private static final int WARMUP = 50;
+
+    private static final int ITERATIONS = 200;
+
+    @Autowired
+    private StockService stockService;
+
+    @Autowired
+    private StockSnapshot stockSnapshot;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final List<Long> ids = new ArrayList<>();
+
+    @BeforeAll
+    public void createStocks() {
+        List<StockDTO> stocks = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            stocks.add(new StockDTO().name(NAME_PREFIX + i).currentPrice(BigDecimal.valueOf(i, 2)));
+        }
+        stockService.saveAll(stocks).forEach(stock -> ids.add(stock.getId()));
+    }
+
+    @AfterAll
+    public void cleanup() {
+        // Through the service so the snapshot drops them as well
+        ids.forEach(stockService::delete);
+    }
+
+    @Test
+    public void exportAndSerialize() {
+        run("export and serialize", i -> {
+        }, i -> {
+            List<StockDTO> stocks = new ArrayList<>(ROWS);
+            stockService.exportAll(stocks::add);
+            write(stocks);
+        });
+    }
+
+    @Test
+    public void snapshot() {
+        run("snapshot", i -> {
+        }, i -> write(stockSnapshot.current().getBody()));
+    }
+
+    @Test
+    public void snapshotAfterPriceUpdate() {
+        run("snapshot after price update",
+                i -> stockService.updatePrices(List.of(new StockPriceDTO().id(ids.get(i % ids.size())).currentPrice(BigDecimal.valueOf(i, 2)))),
+                i -> write(stockSnapshot.current().getBody()));
+    }
+
+    private void write(Object value) {
+        try {
+            if (value instanceof byte[]) {
+                NullOutputStream.INSTANCE.write((byte[]) value);
+            } else {
+                objectMapper.writeValue(NullOutputStream.INSTANCE, value);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * only read is measured, change runs before every read
+     */
+    private static void run(String name, IntConsumer change, IntConsumer read) {
+        BenchmarkLoop.Result result = BenchmarkLoop.run(WARMUP, ITERATIONS, change, read);
+        log.info("{}: {} reads of {} stocks in {} ms, {} us/read, {} KB allocated/read", name, ITERATIONS, ROWS, result.elapsedMillis(),
+                result.microsPerOperation(), result.kilobytesPerOperation());
+    }
+}
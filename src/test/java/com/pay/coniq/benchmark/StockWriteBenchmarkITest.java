@@ -0,0 +1,127 @@
+package com.pay.coniq.benchmark;
+
+import com.pay.coniq.StoreApp;
+import com.pay.coniq.service.StockImportService;
+import com.pay.coniq.service.StockService;
+import com.pay.coniq.service.dto.StockDTO;
+import com.pay.coniq.service.dto.StockImportResultDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Throughput benchmarks for the {@link StockService} write paths.
+ * Every row is committed, so the numbers include flush, audit and commit cost.
+ * Run with {@code mvn -Pdev,benchmark test} against H2 or {@code mvn -Pprod,benchmark test} against MySQL,
+ * the row count can be changed with {@code -Dbenchmark.rows=}.
+ */
+@Tag("benchmark")
+@SpringBootTest(classes = StoreApp.class)
+public class StockWriteBenchmarkITest {
+
+    private static final Logger log = LoggerFactory.getLogger(StockWriteBenchmarkITest.class);
+
+    private static final String NAME_PREFIX = "bench-";
+
+    private static final int ROWS = Integer.getInteger("benchmark.rows", 5000);
+
+    @Autowired
+    private StockService stockService;
+
+    @Autowired
+    private StockImportService stockImportService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @AfterEach
+    public void cleanup() {
+        jdbcTemplate.update("delete from stock where name like ?", NAME_PREFIX + "%");
+    }
+
+    @Test
+    public void singleInsert() {
+        List<StockDTO> stocks = createStocks("single");
+        long start = System.nanoTime();
+        for (StockDTO stock : stocks) {
+            stockService.save(stock);
+        }
+        report("single insert", stocks.size(), System.nanoTime() - start);
+    }
+
+    @Test
+    public void bulkInsert() {
+        List<StockDTO> stocks = createStocks("bulk");
+        long start = System.nanoTime();
+        List<StockDTO> result = stockService.saveAll(stocks);
+        report("bulk insert", stocks.size(), System.nanoTime() - start);
+        assertThat(result).hasSize(ROWS);
+    }
+
+    @Test
+    public void csvImport() throws IOException {
+        // first pass creates every row, the second one updates every price
+        StockImportResultDTO created = stockImportService.importStocks(csv(0), StockImportService.CSV);
+        report("csv import (insert)", (int) created.getLines(), created.getElapsedMillis() * 1_000_000);
+        StockImportResultDTO updated = stockImportService.importStocks(csv(1), StockImportService.CSV);
+        report("csv import (update)", (int) updated.getLines(), updated.getElapsedMillis() * 1_000_000);
+        assertThat(created.getCreated()).isEqualTo(ROWS);
+        assertThat(updated.getUpdated()).isEqualTo(ROWS);
+    }
+
+    /**
+     * generates the CSV lazily so the input never sits in memory
+     */
+    private static Reader csv(int priceOffset) {
+        return new Reader() {
+            private int row = -1;
+            private String line = "name,currentPrice\n";
+            private int position;
+
+            @Override
+            public int read(char[] buffer, int offset, int length) {
+                if (position == line.length()) {
+                    if (++row == ROWS) {
+                        return -1;
+                    }
+                    line = NAME_PREFIX + "import-" + row + "," + (row + priceOffset) + "\n";
+                    position = 0;
+                }
+                int count = Math.min(length, line.length() - position);
+                line.getChars(position, position + count, buffer, offset);
+                position += count;
+                return count;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    static void report(String name, int rows, long elapsedNanos) {
+        double rowsPerSecond = rows / (elapsedNanos / 1_000_000_000d);
+        log.info("{}: {} rows in {} ms, {} rows/sec", name, rows, elapsedNanos / 1_000_000, String.format("%.0f", rowsPerSecond));
+    }
+
+    private static List<StockDTO> createStocks(String run) {
+        List<StockDTO> stocks = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            stocks.add(new StockDTO().name(NAME_PREFIX + run + "-" + i).currentPrice(BigDecimal.valueOf(i, 2)));
+        }
+        return stocks;
+    }
+}
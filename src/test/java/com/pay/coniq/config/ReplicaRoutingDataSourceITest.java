@@ -0,0 +1,234 @@
+package com.pay.coniq.config;
+
+import com.pay.coniq.StoreApp;
+import com.pay.coniq.TestUtil;
+import com.pay.coniq.domain.Stock;
+import com.pay.coniq.repository.StockReadRepository;
+import com.pay.coniq.repository.StockRepository;
+import com.pay.coniq.service.StockService;
+import com.pay.coniq.service.dto.StockCriteria;
+import com.pay.coniq.service.dto.StockDTO;
+import com.pay.coniq.web.rest.util.ReadYourWritesFilter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.File;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Integration tests of read replica routing with three H2 databases, the replicas are snapshots of the primary
+ * taken before every test, so rows written later are only visible on the primary. The second level cache is on
+ * to check that rows of lagging replicas are not cached.
+ */
+@SpringBootTest(classes = StoreApp.class, properties = {
+        "spring.datasource.url=jdbc:h2:mem:primary;DB_CLOSE_DELAY=-1",
+        "store.datasource.replicas[0].url=" + ReplicaRoutingDataSourceITest.REPLICA_0 + ";IFEXISTS=TRUE",
+        "store.datasource.replicas[0].username=sa",
+        "store.datasource.replicas[0].password=sa",
+        "store.datasource.replicas[1].url=" + ReplicaRoutingDataSourceITest.REPLICA_1 + ";IFEXISTS=TRUE",
+        "store.datasource.replicas[1].username=sa",
+        "store.datasource.replicas[1].password=sa",
+        "store.datasource.replica-health-interval=3600000",
+        "store.stock.second-level-cache=true",
+        "spring.datasource.hikari.maximum-pool-size=7"
+})
+@AutoConfigureMockMvc
+@ActiveProfiles("dev")
+public class ReplicaRoutingDataSourceITest {
+
+    static final String REPLICA_0 = "jdbc:h2:mem:replica0;DB_CLOSE_DELAY=-1";
+
+    static final String REPLICA_1 = "jdbc:h2:mem:replica1;DB_CLOSE_DELAY=-1";
+
+    @Autowired
+    private ReplicaHealthIndicator replicaHealthIndicator;
+
+    @Autowired
+    private ReplicaRoutingDataSource replicaRoutingDataSource;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private StockService stockService;
+
+    @Autowired
+    private StockRepository stockRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    public void replicate() throws Exception {
+        File script = File.createTempFile("primary", ".sql");
+        try {
+            jdbcTemplate.execute("SCRIPT TO '" + script.getAbsolutePath() + "'");
+            for (String replica : List.of(REPLICA_0, REPLICA_1)) {
+                execute(replica, "DROP ALL OBJECTS", "RUNSCRIPT FROM '" + script.getAbsolutePath() + "'");
+            }
+        } finally {
+            script.delete();
+        }
+        replicaHealthIndicator.check();
+    }
+
+    @Test
+    public void readOnlyTransactionsUseReplicas() throws Exception {
+        StockDTO stock = stockService.save(new StockDTO().name("replica-1").currentPrice(BigDecimal.ONE));
+        try {
+            // Not replicated yet
+            assertThat(findByNamePrefix("replica-1")).isEmpty();
+            // Read-write transactions read from the primary
+            Optional<Stock> written = new TransactionTemplate(transactionManager).execute(status -> stockRepository.findOneByName("replica-1"));
+            assertThat(written).isPresent();
+
+            replicate();
+            assertThat(findByNamePrefix("replica-1")).extracting(StockDTO::getId).containsExactly(stock.getId());
+        } finally {
+            stockService.delete(stock.getId());
+        }
+    }
+
+    @Test
+    public void readsOfLaggingReplicasAreNotCached() throws Exception {
+        StockDTO stock = stockService.save(new StockDTO().name("replica-4").currentPrice(BigDecimal.ONE));
+        try {
+            replicate();
+            stockService.save(stock.getId(), BigDecimal.TEN);
+
+            // The replicas still have the old price
+            TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+            readOnly.setReadOnly(true);
+            Optional<Stock> lagging = readOnly.execute(status -> stockRepository.findById(stock.getId()));
+            assertThat(lagging).hasValueSatisfying(read -> assertThat(read.getCurrentPrice()).isEqualByComparingTo(BigDecimal.ONE));
+            assertThat(entityManagerFactory.getCache().contains(Stock.class, stock.getId())).isFalse();
+
+            // Single stock reads are cached from the primary
+            assertThat(stockService.findOne(stock.getId()))
+                    .hasValueSatisfying(read -> assertThat(read.getCurrentPrice()).isEqualByComparingTo(BigDecimal.TEN));
+            assertThat(stockService.findOneByName("replica-4"))
+                    .hasValueSatisfying(read -> assertThat(read.getCurrentPrice()).isEqualByComparingTo(BigDecimal.TEN));
+
+            // A page read right after the change may come from a lagging replica and gets no ETag
+            mockMvc.perform(get("/api/stocks").param("namePrefix", "replica-4"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().doesNotExist("ETag"));
+        } finally {
+            stockService.delete(stock.getId());
+        }
+    }
+
+    @Test
+    public void primaryPoolIsConfiguredBySpringDatasourceHikari() {
+        assertThat(replicaRoutingDataSource.getPrimary().getMaximumPoolSize()).isEqualTo(7);
+    }
+
+    @Test
+    public void readsAlternateBetweenReplicas() throws Exception {
+        execute(REPLICA_0, "UPDATE stock SET current_price = 10 WHERE name = 'p1'");
+        execute(REPLICA_1, "UPDATE stock SET current_price = 11 WHERE name = 'p1'");
+
+        Set<BigDecimal> prices = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            prices.addAll(findByNamePrefix("p1").stream().map(StockDTO::getCurrentPrice).collect(Collectors.toSet()));
+        }
+
+        assertThat(prices).usingElementComparator(BigDecimal::compareTo).containsExactlyInAnyOrder(BigDecimal.TEN, new BigDecimal("11"));
+    }
+
+    @Test
+    public void readYourWritesWithToken() throws Exception {
+        String token = mockMvc.perform(post("/api/stocks")
+                .contentType(TestUtil.APPLICATION_JSON_UTF8)
+                .content(TestUtil.convertObjectToJsonBytes(new StockDTO().name("replica-2").currentPrice(BigDecimal.ONE))))
+                .andExpect(status().isCreated())
+                .andExpect(header().exists(ReadYourWritesFilter.READ_TOKEN_HEADER))
+                .andReturn().getResponse().getHeader(ReadYourWritesFilter.READ_TOKEN_HEADER);
+        try {
+            mockMvc.perform(get("/api/stocks").param("namePrefix", "replica-2"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().doesNotExist(ReadYourWritesFilter.READ_TOKEN_HEADER))
+                    .andExpect(jsonPath("$", hasSize(0)));
+            mockMvc.perform(get("/api/stocks").param("namePrefix", "replica-2").header(ReadYourWritesFilter.READ_TOKEN_HEADER, token))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$", hasSize(1)));
+            // An expired token does not pin reads to the primary
+            mockMvc.perform(get("/api/stocks").param("namePrefix", "replica-2")
+                    .header(ReadYourWritesFilter.READ_TOKEN_HEADER, Long.parseLong(token) - 60_000))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$", hasSize(0)));
+        } finally {
+            stockRepository.findOneByName("replica-2").ifPresent(stockRepository::delete);
+        }
+    }
+
+    @Test
+    public void readsFallBackToPrimaryWhenReplicasAreDown() throws Exception {
+        StockDTO stock = stockService.save(new StockDTO().name("replica-3").currentPrice(BigDecimal.ONE));
+        try {
+            execute(REPLICA_0, "SHUTDOWN");
+            execute(REPLICA_1, "SHUTDOWN");
+            replicaHealthIndicator.check();
+
+            Health health = replicaHealthIndicator.health();
+            assertThat(health.getStatus()).isEqualTo(ReplicaHealthIndicator.DEGRADED);
+            assertThat(health.getDetails()).containsEntry("replica-0", "DOWN").containsEntry("replica-1", "DOWN");
+            // Reads still work, the instance stays in service
+            mockMvc.perform(get("/actuator/health"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.status").value(ReplicaHealthIndicator.DEGRADED.getCode()));
+            assertThat(findByNamePrefix("replica-3")).extracting(StockDTO::getId).containsExactly(stock.getId());
+        } finally {
+            stockService.delete(stock.getId());
+        }
+    }
+
+    private List<StockDTO> findByNamePrefix(String namePrefix) {
+        StockCriteria criteria = new StockCriteria();
+        criteria.setNamePrefix(namePrefix);
+        return stockService.findAll(criteria, PageRequest.of(0, 20, Sort.by("id")), StockReadRepository.FIELDS).getContent();
+    }
+
+    private static void execute(String url, String... statements) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url, "sa", "sa"); Statement statement = connection.createStatement()) {
+            for (String sql : statements) {
+                statement.execute(sql);
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.pay.coniq.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pay.coniq.StoreApp;
+import com.pay.coniq.service.StockService;
+import com.pay.coniq.service.dto.StockDTO;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Open model load test of {@link com.pay.coniq.web.rest.StockResource} over HTTP. Requests are started at a fixed
+ * arrival rate whatever the response times are, a weighted mix of reads, list pages, updates, creates and deletes.
+ * Latency is taken from the time a request was due, not from when it was sent, so a stalled server is not hidden
+ * (coordinated omission). Every endpoint gets an HdrHistogram and the summary is written as json to
+ * {@code loadtest.report}. Run with {@code mvn -Pdev,loadtest test} against H2 or {@code mvn -Pprod,loadtest test}
+ * against MySQL, tuned with {@code -Dloadtest.rate=} (requests/sec), {@code -Dloadtest.duration=} and
+ * {@code -Dloadtest.warmup=} (seconds), {@code -Dloadtest.rows=} and {@code -Dloadtest.seed=}.
+ */
+@Tag("loadtest")
+@SpringBootTest(classes = StoreApp.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class StockLoadTestITest {
+
+    private static final Logger log = LoggerFactory.getLogger(StockLoadTestITest.class);
+
+    private static final String NAME_PREFIX = "load-";
+
+    private static final int RATE = Integer.getInteger("loadtest.rate", 200);
+
+    private static final int DURATION = Integer.getInteger("loadtest.duration", 30);
+
+    private static final int WARMUP = Integer.getInteger("loadtest.warmup", 5);
+
+    private static final int ROWS = Integer.getInteger("loadtest.rows", 1000);
+
+    private static final long SEED = Long.getLong("loadtest.seed", 42);
+
+    private static final String REPORT = System.getProperty("loadtest.report", "target/loadtest-report.json");
+
+    private static final double MAX_ERROR_RATE = Double.parseDouble(System.getProperty("loadtest.max-error-rate", "0.01"));
+
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toNanos(1);
+
+    private static final int PAGE_SIZE = 20;
+
+    /**
+     * the workload mix, weights are out of 100
+     */
+    enum Endpoint {
+        GET_STOCK("GET /api/stocks/{id}", 60),
+        LIST_STOCKS("GET /api/stocks", 15),
+        UPDATE_STOCK("PUT /api/stocks/{id}", 15),
+        CREATE_STOCK("POST /api/stocks", 5),
+        DELETE_STOCK("DELETE /api/stocks/{id}", 5);
+
+        private final String path;
+
+        private final int weight;
+
+        Endpoint(String path, int weight) {
+            this.path = path;
+            this.weight = weight;
+        }
+    }
+
+    @LocalServerPort
+    private int port;
+
+    @Value("${spring.datasource.url}")
+    private String datasourceUrl;
+
+    @Autowired
+    private StockService stockService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final Map<Endpoint, Histogram> histograms = new LinkedHashMap<>();
+
+    private final Map<Endpoint, AtomicLong> errors = new LinkedHashMap<>();
+
+    private final Queue<Long> created = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong inFlight = new AtomicLong();
+
+    private List<Long> ids;
+
+    private HttpClient client;
+
+    @AfterEach
+    public void cleanup() {
+        jdbcTemplate.update("delete from stock where name like ?", NAME_PREFIX + "%");
+    }
+
+    @Test
+    public void mixedWorkload() throws Exception {
+        List<StockDTO> stocks = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            stocks.add(new StockDTO().name(NAME_PREFIX + "seed-" + i).currentPrice(BigDecimal.valueOf(i, 2)));
+        }
+        ids = new ArrayList<>(ROWS);
+        stockService.saveAll(stocks).forEach(stock -> ids.add(stock.getId()));
+        for (Endpoint endpoint : Endpoint.values()) {
+            histograms.put(endpoint, new ConcurrentHistogram(HIGHEST_LATENCY, 3));
+            errors.put(endpoint, new AtomicLong());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+        try {
+            client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(executor).connectTimeout(Duration.ofSeconds(5)).build();
+            Random random = new Random(SEED);
+            run(random, WARMUP, false);
+            long start = System.nanoTime();
+            run(random, DURATION, true);
+            awaitInFlight();
+            writeReport(report((System.nanoTime() - start) / 1e9));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long requests = histograms.values().stream().mapToLong(Histogram::getTotalCount).sum();
+        long failed = errors.values().stream().mapToLong(AtomicLong::get).sum();
+        assertThat(requests).isGreaterThan(0);
+        assertThat((double) failed / requests).isLessThanOrEqualTo(MAX_ERROR_RATE);
+    }
+
+    /**
+     * starts a request every 1/RATE seconds for the given time, the latency of a request counts from when it was due
+     */
+    private void run(Random random, int seconds, boolean measured) {
+        long interval = TimeUnit.SECONDS.toNanos(1) / RATE;
+        long start = System.nanoTime();
+        long count = (long) RATE * seconds;
+        for (long i = 0; i < count; i++) {
+            long due = start + i * interval;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Endpoint endpoint = pick(random);
+            HttpRequest request = request(endpoint, random);
+            if (request == null) {
+                continue;
+            }
+            inFlight.incrementAndGet();
+            client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+                long latency = System.nanoTime() - due;
+                boolean ok = error == null && response.statusCode() < 400;
+                if (ok && endpoint == Endpoint.CREATE_STOCK) {
+                    created.add(createdId(response.body()));
+                }
+                // warmup responses are not recorded, even when they complete during the measurement
+                if (measured) {
+                    histograms.get(endpoint).recordValue(Math.min(latency, HIGHEST_LATENCY));
+                    if (!ok) {
+                        errors.get(endpoint).incrementAndGet();
+                    }
+                }
+                inFlight.decrementAndGet();
+            });
+        }
+    }
+
+    private void awaitInFlight() {
+        long deadline = System.nanoTime() + HIGHEST_LATENCY;
+        while (inFlight.get() > 0) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException(inFlight.get() + " requests still in flight");
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+    }
+
+    private static Endpoint pick(Random random) {
+        int roll = random.nextInt(100);
+        for (Endpoint endpoint : Endpoint.values()) {
+            roll -= endpoint.weight;
+            if (roll < 0) {
+                return endpoint;
+            }
+        }
+        return Endpoint.GET_STOCK;
+    }
+
+    /**
+     * null when there is no created stock left to delete
+     */
+    private HttpRequest request(Endpoint endpoint, Random random) {
+        Long id = ids.get(random.nextInt(ids.size()));
+        switch (endpoint) {
+            case GET_STOCK:
+                return builder("/api/stocks/" + id).build();
+            case LIST_STOCKS:
+                return builder("/api/stocks?sort=id&size=" + PAGE_SIZE + "&page=" + random.nextInt(ROWS / PAGE_SIZE)).build();
+            case UPDATE_STOCK:
+                return builder("/api/stocks/" + id + "?currentPrice=" + BigDecimal.valueOf(random.nextInt(100_000), 2))
+                        .PUT(HttpRequest.BodyPublishers.noBody()).build();
+            case CREATE_STOCK:
+                String body = "{\"name\":\"" + NAME_PREFIX + random.nextLong() + "\",\"currentPrice\":" + random.nextInt(1000) + "}";
+                return builder("/api/stocks").header("Content-Type", "application/json").POST(HttpRequest.BodyPublishers.ofString(body)).build();
+            default:
+                Long createdId = created.poll();
+                return createdId == null ? null : builder("/api/stocks/" + createdId).DELETE().build();
+        }
+    }
+
+    private HttpRequest.Builder builder(String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).timeout(Duration.ofNanos(HIGHEST_LATENCY));
+    }
+
+    private Long createdId(String body) {
+        try {
+            return objectMapper.readTree(body).get("id").asLong();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Map<String, Object> report(double elapsedSeconds) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("datasource", datasourceUrl);
+        report.put("rate", RATE);
+        report.put("durationSeconds", DURATION);
+        report.put("warmupSeconds", WARMUP);
+        report.put("rows", ROWS);
+        report.put("seed", SEED);
+        report.put("elapsedSeconds", elapsedSeconds);
+        Histogram total = new Histogram(HIGHEST_LATENCY, 3);
+        long totalErrors = 0;
+        List<Map<String, Object>> endpoints = new ArrayList<>();
+        for (Endpoint endpoint : Endpoint.values()) {
+            Histogram histogram = histograms.get(endpoint);
+            total.add(histogram);
+            totalErrors += errors.get(endpoint).get();
+            endpoints.add(summary(endpoint.path, histogram, errors.get(endpoint).get(), elapsedSeconds));
+        }
+        report.put("endpoints", endpoints);
+        report.put("total", summary("total", total, totalErrors, elapsedSeconds));
+        return report;
+    }
+
+    private static Map<String, Object> summary(String name, Histogram histogram, long errors, double elapsedSeconds) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("endpoint", name);
+        summary.put("requests", histogram.getTotalCount());
+        summary.put("errors", errors);
+        summary.put("throughput", histogram.getTotalCount() / elapsedSeconds);
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("mean", histogram.getMean() / 1e6);
+        latency.put("p50", histogram.getValueAtPercentile(50) / 1e6);
+        latency.put("p90", histogram.getValueAtPercentile(90) / 1e6);
+        latency.put("p99", histogram.getValueAtPercentile(99) / 1e6);
+        latency.put("p999", histogram.getValueAtPercentile(99.9) / 1e6);
+        latency.put("max", histogram.getMaxValue() / 1e6);
+        summary.put("latencyMillis", latency);
+        log.info("{}: {} requests, {} errors, {} req/s, p50 {} ms, p99 {} ms, p999 {} ms", name, histogram.getTotalCount(), errors,
+                String.format("%.1f", histogram.getTotalCount() / elapsedSeconds), latency.get("p50"), latency.get("p99"), latency.get("p999"));
+        return summary;
+    }
+
+    private void writeReport(Map<String, Object> report) throws IOException {
+        File file = new File(REPORT);
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(file, report);
+        log.info("load test report written to {}", file.getAbsolutePath());
+    }
+}
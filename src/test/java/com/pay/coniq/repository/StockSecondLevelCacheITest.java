@@ -0,0 +1,121 @@
+package com.pay.coniq.repository;
+
+import com.pay.coniq.StoreApp;
+import com.pay.coniq.domain.Stock;
+import com.pay.coniq.service.StockService;
+import com.pay.coniq.service.dto.StockCriteria;
+import com.pay.coniq.service.dto.StockDTO;
+import com.pay.coniq.service.dto.StockPriceDTO;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManagerFactory;
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Integration tests of store.stock.second-level-cache=true, uses its own database.
+ */
+@SpringBootTest(classes = StoreApp.class, properties = {
+        "store.stock.second-level-cache=true",
+        "spring.datasource.url=jdbc:h2:mem:l2cache;DB_CLOSE_DELAY=-1"
+})
+@ActiveProfiles("dev")
+public class StockSecondLevelCacheITest {
+
+    @Autowired
+    private StockRepository stockRepository;
+
+    @Autowired
+    private StockService stockService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    public void readsStockFromCache() {
+        Stock stock = stockRepository.save(new Stock().name("l2-read").currentPrice(BigDecimal.ONE));
+        try {
+            findById(stock.getId());
+            long hits = region().getHitCount();
+            long statements = statistics().getPrepareStatementCount();
+
+            assertThat(findById(stock.getId()).getCurrentPrice()).isEqualByComparingTo(BigDecimal.ONE);
+
+            assertThat(region().getHitCount()).isEqualTo(hits + 1);
+            assertThat(statistics().getPrepareStatementCount()).isEqualTo(statements);
+        } finally {
+            stockRepository.deleteById(stock.getId());
+        }
+    }
+
+    @Test
+    public void bulkUpdatesEvictStock() {
+        Stock stock = stockRepository.save(new Stock().name("l2-bulk").currentPrice(BigDecimal.ONE));
+        try {
+            findById(stock.getId());
+
+            // Hql update statement
+            stockService.save(stock.getId(), new BigDecimal("2.5"));
+            assertThat(findById(stock.getId()).getCurrentPrice()).isEqualByComparingTo("2.5");
+
+            // Jdbc batch update
+            stockService.updatePrices(List.of(new StockPriceDTO().id(stock.getId()).currentPrice(new BigDecimal("3.5"))));
+            assertThat(findById(stock.getId()).getCurrentPrice()).isEqualByComparingTo("3.5");
+        } finally {
+            stockRepository.deleteById(stock.getId());
+        }
+    }
+
+    @Test
+    public void readsPagesFromQueryCache() {
+        Stock stock = stockRepository.save(new Stock().name("l2-page").currentPrice(BigDecimal.ONE));
+        try {
+            Pageable pageable = PageRequest.of(0, 20, Sort.by("id"));
+            StockCriteria criteria = new StockCriteria();
+            criteria.setNamePrefix("l2-page");
+            stockRepository.findAll(pageable);
+            stockService.findAll(criteria, pageable, StockReadRepository.FIELDS);
+            long hits = statistics().getQueryCacheHitCount();
+
+            assertThat(stockRepository.findAll(pageable).getContent()).extracting(Stock::getId).contains(stock.getId());
+            assertThat(stockService.findAll(criteria, pageable, StockReadRepository.FIELDS).getContent())
+                    .extracting(StockDTO::getCurrentPrice).usingElementComparator(BigDecimal::compareTo).containsExactly(BigDecimal.ONE);
+            assertThat(statistics().getQueryCacheHitCount()).isGreaterThan(hits);
+
+            // A price update invalidates the cached pages
+            stockService.updatePrices(List.of(new StockPriceDTO().id(stock.getId()).currentPrice(new BigDecimal("4.5"))));
+            assertThat(stockService.findAll(criteria, pageable, StockReadRepository.FIELDS).getContent())
+                    .extracting(StockDTO::getCurrentPrice).usingElementComparator(BigDecimal::compareTo).containsExactly(new BigDecimal("4.5"));
+        } finally {
+            stockRepository.deleteById(stock.getId());
+        }
+    }
+
+    private Stock findById(Long id) {
+        return new TransactionTemplate(transactionManager).execute(status -> stockRepository.findById(id).orElseThrow());
+    }
+
+    private Statistics statistics() {
+        return entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    private CacheRegionStatistics region() {
+        return statistics().getDomainDataRegionStatistics(Stock.CACHE_REGION);
+    }
+}
@@ -0,0 +1,181 @@
+package com.pay.coniq.service.audit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pay.coniq.StoreApp;
+import com.pay.coniq.domain.Stock;
+import com.pay.coniq.service.StockService;
+import com.pay.coniq.service.dto.StockDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hibernate.envers.AuditReader;
+import org.hibernate.envers.AuditReaderFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Integration tests for the {@link AsyncAuditWriter} of store.audit.mode=async.
+ * Uses its own database and journal directory, flushes are triggered by the tests.
+ */
+@SpringBootTest(classes = StoreApp.class, properties = {
+        "store.audit.mode=async",
+        "store.audit.flush-interval=3600000",
+        "spring.datasource.url=jdbc:h2:mem:audit;DB_CLOSE_DELAY=-1"
+})
+@ActiveProfiles("dev")
+public class AsyncAuditWriterITest {
+
+    private static Path journalDir;
+
+    @Autowired
+    private AsyncAuditWriter asyncAuditWriter;
+
+    @Autowired
+    private StockService stockService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private EntityManager em;
+
+    @DynamicPropertySource
+    static void journalDir(DynamicPropertyRegistry registry) throws IOException {
+        journalDir = Files.createTempDirectory("audit-journal");
+        registry.add("store.audit.journal-dir", journalDir::toString);
+    }
+
+    @Test
+    public void writesEnversRevisionsAfterCommit() {
+        StockDTO stock = stockService.save(new StockDTO().name("audit1").currentPrice(BigDecimal.ONE));
+        stockService.save(stock.getId(), new BigDecimal("2.5"));
+
+        // Nothing is audited inside the request transactions
+        assertThat(auditRows(stock.getId())).isZero();
+        assertThat(asyncAuditWriter.getDepth()).isEqualTo(2);
+
+        asyncAuditWriter.flush();
+
+        assertThat(asyncAuditWriter.getDepth()).isZero();
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            AuditReader auditReader = AuditReaderFactory.get(em);
+            List<Number> revisions = auditReader.getRevisions(Stock.class, stock.getId());
+            assertThat(revisions).hasSize(2);
+            Stock first = auditReader.find(Stock.class, stock.getId(), revisions.get(0));
+            Stock last = auditReader.find(Stock.class, stock.getId(), revisions.get(1));
+            assertThat(first.getCurrentPrice()).isEqualByComparingTo(BigDecimal.ONE);
+            assertThat(last.getName()).isEqualTo("audit1");
+            assertThat(last.getCurrentPrice()).isEqualByComparingTo("2.5");
+        });
+
+        stockService.delete(stock.getId());
+        asyncAuditWriter.flush();
+        assertThat(auditRows(stock.getId())).isEqualTo(3);
+    }
+
+    @Test
+    public void replaysJournalAfterRestartExactlyOnce() throws IOException {
+        StockDTO stock = stockService.save(new StockDTO().name("audit2").currentPrice(BigDecimal.TEN));
+        assertThat(auditRows(stock.getId())).isZero();
+
+        // A second writer on the same journal stands in for the application restarted after a crash
+        AsyncAuditWriter restarted = new AsyncAuditWriter(jdbcTemplate, transactionManager, objectMapper,
+                new SimpleMeterRegistry(), journalDir.toString(), 1024, true, 500);
+        restarted.replay();
+        assertThat(restarted.getDepth()).isGreaterThanOrEqualTo(1);
+        restarted.flush();
+        restarted.shutdown();
+        assertThat(auditRows(stock.getId())).isEqualTo(1);
+
+        // The checkpoint keeps the original writer from writing the same record again
+        asyncAuditWriter.flush();
+        assertThat(auditRows(stock.getId())).isEqualTo(1);
+
+        stockService.delete(stock.getId());
+        asyncAuditWriter.flush();
+    }
+
+    @Test
+    public void reconcilesPendingRecordsAgainstItsOwnCheckpoint() throws IOException {
+        StockDTO stock = stockService.save(new StockDTO().name("audit3").currentPrice(BigDecimal.ONE));
+        stockService.save(stock.getId(), new BigDecimal("3.5"));
+        asyncAuditWriter.flush();
+        assertThat(auditRows(stock.getId())).isEqualTo(2);
+
+        // Another instance crashed after its commits, before it resolved their pending records
+        Path otherDir = Files.createTempDirectory("audit-journal");
+        AuditJournal other = new AuditJournal(otherDir, 1024, false, objectMapper);
+        other.open();
+        other.append(1L, true, 0, List.of(new AuditRecord.Entry(stock.getId(), 1, null, new BigDecimal("3.5"))));
+        other.append(2L, true, 0, List.of(new AuditRecord.Entry(stock.getId(), 1, null, new BigDecimal("4.5"))));
+        other.close();
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        AsyncAuditWriter restarted = new AsyncAuditWriter(jdbcTemplate, transactionManager, objectMapper,
+                meterRegistry, otherDir.toString(), 1024, true, 500);
+        restarted.replay();
+        // The stock is at the price of the first record only, the second one rolled back
+        assertThat(restarted.getDepth()).isEqualTo(1);
+        assertThat(meterRegistry.counter("store.audit.reconcile.dropped").count()).isEqualTo(1);
+        // Its seqs are below the checkpoint of the other journal, they are written all the same
+        restarted.flush();
+        restarted.shutdown();
+        assertThat(auditRows(stock.getId())).isEqualTo(3);
+
+        // Resolved records are not reconciled again
+        AsyncAuditWriter again = new AsyncAuditWriter(jdbcTemplate, transactionManager, objectMapper,
+                new SimpleMeterRegistry(), otherDir.toString(), 1024, true, 500);
+        again.replay();
+        assertThat(again.getDepth()).isZero();
+        again.shutdown();
+
+        stockService.delete(stock.getId());
+        asyncAuditWriter.flush();
+    }
+
+    @Test
+    public void refusesSegmentsOfAnotherJournal() throws IOException {
+        Path dir = Files.createTempDirectory("audit-journal");
+        AuditJournal first = new AuditJournal(dir, 1024, false, objectMapper);
+        first.open();
+        first.close();
+        Path otherDir = Files.createTempDirectory("audit-journal");
+        AuditJournal other = new AuditJournal(otherDir, 1024, false, objectMapper);
+        other.open();
+        other.close();
+        try (Stream<Path> segments = Files.list(otherDir)) {
+            Path segment = segments.findFirst().get();
+            Files.copy(segment, dir.resolve("audit-00000000000000000009.log"));
+        }
+
+        AsyncAuditWriter mixed = new AsyncAuditWriter(jdbcTemplate, transactionManager, objectMapper,
+                new SimpleMeterRegistry(), dir.toString(), 1024, true, 500);
+        assertThatThrownBy(mixed::replay).isInstanceOf(IOException.class).hasMessageContaining("belongs to journal");
+    }
+
+    private int auditRows(Long id) {
+        return jdbcTemplate.queryForObject("select count(*) from stock_aud where id = ?", Integer.class, id);
+    }
+}
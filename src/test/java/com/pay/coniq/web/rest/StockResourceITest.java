@@ -1,37 +1,89 @@
 
 package com.pay.coniq.web.rest;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.JsonPath;
 import com.pay.coniq.StoreApp;
 import com.pay.coniq.TestUtil;
 import com.pay.coniq.domain.Stock;
+import com.pay.coniq.repository.StockCandleRepository;
+import com.pay.coniq.repository.StockHistoryRepository;
 import com.pay.coniq.repository.StockRepository;
+import com.pay.coniq.service.StockCache;
+import com.pay.coniq.service.StockCandleRollup;
+import com.pay.coniq.service.StockChangeTracker;
+import com.pay.coniq.service.StockHistoryService;
+import com.pay.coniq.service.StockImportService;
+import com.pay.coniq.service.StockNameIndex;
 import com.pay.coniq.service.StockService;
+import com.pay.coniq.service.StockSnapshot;
+import com.pay.coniq.service.StockTickBuffer;
+import com.pay.coniq.service.dto.CandleInterval;
+import com.pay.coniq.service.dto.StockChangeDTO;
+import com.pay.coniq.service.dto.StockCriteria;
 import com.pay.coniq.service.dto.StockDTO;
+import com.pay.coniq.service.dto.StockNameDTO;
+import com.pay.coniq.service.dto.StockPriceDTO;
+import com.pay.coniq.service.dto.StockPriceUpdateResultDTO;
+import com.pay.coniq.service.event.StockChangedEvent;
+import com.pay.coniq.service.event.StockChangesEvent;
 import com.pay.coniq.service.mapper.StockMapper;
 import com.pay.coniq.web.rest.errors.ExceptionTranslator;
+import com.pay.coniq.web.rest.util.RequestMetricsFilter;
+import com.pay.coniq.web.sse.StockPriceBroadcaster;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.web.PageableHandlerMethodArgumentResolver;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.ByteArrayHttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.event.ApplicationEvents;
+import org.springframework.test.context.event.RecordApplicationEvents;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.validation.Validator;
 
 import javax.persistence.EntityManager;
+import java.io.ByteArrayInputStream;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 
@@ -40,6 +92,8 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
  */
 
 @SpringBootTest(classes = StoreApp.class)
+@AutoConfigureMetrics
+@RecordApplicationEvents
 @ActiveProfiles("dev")
 public class StockResourceITest {
 
@@ -60,9 +114,54 @@ public class StockResourceITest {
     @Autowired
     private StockService stockService;
 
+    @Autowired
+    private StockImportService stockImportService;
+
+    @Autowired
+    private StockCache stockCache;
+
+    @Autowired
+    private StockHistoryService stockHistoryService;
+
+    @Autowired
+    private StockCandleRollup stockCandleRollup;
+
+    @Autowired
+    private StockCandleRepository stockCandleRepository;
+
+    @Autowired
+    private StockHistoryRepository stockHistoryRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private StockChangeTracker stockChangeTracker;
+
+    @Autowired
+    private StockNameIndex stockNameIndex;
+
+    @Autowired
+    private StockTickBuffer stockTickBuffer;
+
+    @Autowired
+    private StockPriceBroadcaster stockPriceBroadcaster;
+
+    @Autowired
+    private StockSnapshot stockSnapshot;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PrometheusMeterRegistry prometheusMeterRegistry;
+
     @Autowired
     private MappingJackson2HttpMessageConverter jacksonMessageConverter;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
     @Autowired
     private PageableHandlerMethodArgumentResolver pageableArgumentResolver;
 
@@ -75,6 +174,9 @@ public class StockResourceITest {
     @Autowired
     private Validator validator;
 
+    @Autowired
+    private ApplicationEvents applicationEvents;
+
     private MockMvc restStockMockMvc;
 
     private Stock stock;
@@ -83,12 +185,13 @@ public class StockResourceITest {
     @BeforeEach
     public void setup() throws URISyntaxException {
         MockitoAnnotations.initMocks(this);
-        final StockResource stockResource = new StockResource(stockService);
+        final StockResource stockResource = new StockResource(stockService, stockImportService, stockHistoryService, stockChangeTracker, stockNameIndex, stockTickBuffer, stockPriceBroadcaster, stockSnapshot, objectMapper);
         this.restStockMockMvc = MockMvcBuilders.standaloneSetup(stockResource)
                 .setCustomArgumentResolvers(pageableArgumentResolver)
                 .setControllerAdvice(exceptionTranslator)
                 .setConversionService(TestUtil.createFormattingConversionService())
-                .setMessageConverters(jacksonMessageConverter)
+                .setMessageConverters(new ByteArrayHttpMessageConverter(), jacksonMessageConverter)
+                .addFilters(new RequestMetricsFilter(meterRegistry))
                 .setValidator(validator).build();
     }
 
@@ -112,6 +215,7 @@ public class StockResourceITest {
     @BeforeEach
     public void initTest() {
         stock = createEntity();
+        stockCache.clear();
     }
 
     @Test
@@ -133,6 +237,48 @@ public class StockResourceITest {
         assertThat(testStock.getName()).isEqualTo(DEFAULT_NAME);
     }
 
+    @Test
+    @Transactional
+    public void createStocks() throws Exception {
+        int databaseSizeBeforeCreate = stockRepository.findAll().size();
+
+        // Create the Stocks
+        List<StockDTO> stockDTOs = Arrays.asList(
+                new StockDTO().name(DEFAULT_NAME).currentPrice(DEFAULT_CURRENT_PRICE),
+                new StockDTO().name(UPDATED_NAME).currentPrice(UPDATED_CURRENT_PRICE));
+        restStockMockMvc.perform(post("/api/stocks/bulk")
+                .contentType(TestUtil.APPLICATION_JSON_UTF8)
+                .content(TestUtil.convertObjectToJsonBytes(stockDTOs)))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.[*].name").value(hasItem(UPDATED_NAME)));
+
+        // Validate the Stocks in the database
+        List<Stock> stockList = stockRepository.findAll();
+        assertThat(stockList).hasSize(databaseSizeBeforeCreate + 2);
+        // One event for the whole batch
+        assertThat(applicationEvents.stream(StockChangesEvent.class).map(event -> event.getChanges().size()))
+                .containsExactly(2);
+    }
+
+    @Test
+    @Transactional
+    public void createStocksWithExistingName() throws Exception {
+        stockRepository.saveAndFlush(stock);
+        int databaseSizeBeforeCreate = stockRepository.findAll().size();
+
+        // A stock with the same name already exists, so the whole request must fail
+        List<StockDTO> stockDTOs = Arrays.asList(
+                new StockDTO().name(UPDATED_NAME).currentPrice(UPDATED_CURRENT_PRICE),
+                new StockDTO().name(DEFAULT_NAME).currentPrice(DEFAULT_CURRENT_PRICE));
+        restStockMockMvc.perform(post("/api/stocks/bulk")
+                .contentType(TestUtil.APPLICATION_JSON_UTF8)
+                .content(TestUtil.convertObjectToJsonBytes(stockDTOs)))
+                .andExpect(status().isBadRequest());
+
+        List<Stock> stockList = stockRepository.findAll();
+        assertThat(stockList).hasSize(databaseSizeBeforeCreate);
+    }
+
     @Test
     @Transactional
     public void createStockWithExistingId() throws Exception {
@@ -154,6 +300,75 @@ public class StockResourceITest {
     }
 
 
+    @Test
+    @Transactional
+    public void importStocksFromCsv() throws Exception {
+        // Initialize the database
+        stock = stockRepository.saveAndFlush(stock);
+        int databaseSizeBeforeImport = stockRepository.findAll().size();
+
+        String csv = "id,name,currentPrice\n" +
+                "," + DEFAULT_NAME + "," + UPDATED_CURRENT_PRICE + "\n" +
+                ",\"" + UPDATED_NAME + ",x\",1.5\n" +
+                ",broken,not-a-price\n";
+        restStockMockMvc.perform(post("/api/stocks/import")
+                .contentType("text/csv")
+                .content(csv))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.lines").value(3))
+                .andExpect(jsonPath("$.created").value(1))
+                .andExpect(jsonPath("$.updated").value(1))
+                .andExpect(jsonPath("$.errorCount").value(1))
+                .andExpect(jsonPath("$.errors[0].line").value(4));
+
+        em.clear();
+        assertThat(stockRepository.findAll()).hasSize(databaseSizeBeforeImport + 1);
+        assertThat(stockRepository.findOneByName(DEFAULT_NAME).get().getCurrentPrice()).isEqualTo(UPDATED_CURRENT_PRICE);
+        assertThat(stockRepository.findOneByName(UPDATED_NAME + ",x")).isPresent();
+    }
+
+    @Test
+    public void importStocksRetriesRejectedBatch() throws Exception {
+        // The database rejects the too long name, which fails the whole batch first
+        String ndjson = "{\"name\":\"import-1\",\"currentPrice\":1}\n" +
+                "{\"name\":\"" + "x".repeat(300) + "\",\"currentPrice\":2}\n" +
+                "{\"name\":\"import-3\",\"currentPrice\":3}\n";
+        try {
+            restStockMockMvc.perform(post("/api/stocks/import")
+                    .contentType("application/x-ndjson")
+                    .content(ndjson))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.created").value(2))
+                    .andExpect(jsonPath("$.errorCount").value(1))
+                    .andExpect(jsonPath("$.errors[0].line").value(2));
+
+            assertThat(stockRepository.findOneByName("import-1")).isPresent();
+            assertThat(stockRepository.findOneByName("import-3")).isPresent();
+        } finally {
+            stockRepository.findOneByName("import-1").ifPresent(stockRepository::delete);
+            stockRepository.findOneByName("import-3").ifPresent(stockRepository::delete);
+        }
+    }
+
+    @Test
+    @Transactional
+    public void importStocksFromNdjson() throws Exception {
+        int databaseSizeBeforeImport = stockRepository.findAll().size();
+
+        String ndjson = "{\"name\":\"" + DEFAULT_NAME + "\",\"currentPrice\":12.5}\n" +
+                "{\"name\":\"" + UPDATED_NAME + "\"}\n";
+        restStockMockMvc.perform(post("/api/stocks/import")
+                .contentType("application/x-ndjson")
+                .content(ndjson))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.created").value(1))
+                .andExpect(jsonPath("$.errorCount").value(1))
+                .andExpect(jsonPath("$.errors[0].line").value(2));
+
+        em.clear();
+        assertThat(stockRepository.findAll()).hasSize(databaseSizeBeforeImport + 1);
+    }
+
     @Test
     @Transactional
     public void getAllStocks() throws Exception {
@@ -168,6 +383,177 @@ public class StockResourceITest {
                 .andExpect(jsonPath("$.[*].currentPrice").value(hasItem(DEFAULT_CURRENT_PRICE.doubleValue())));
     }
 
+    @Test
+    @Transactional
+    public void getAllStocksWithCursor() throws Exception {
+        // Initialize the database
+        for (int i = 0; i < 3; i++) {
+            stockRepository.saveAndFlush(new Stock().name(DEFAULT_NAME + i).currentPrice(DEFAULT_CURRENT_PRICE));
+        }
+        int databaseSize = stockRepository.findAll().size();
+
+        // Walk the whole table two stocks at a time
+        Pattern next = Pattern.compile("after=([^&>]+)[^>]*>; rel=\"next\"");
+        List<Integer> ids = new ArrayList<>();
+        String after = "";
+        while (after != null) {
+            MvcResult result = restStockMockMvc.perform(get("/api/stocks?size=2&after=" + after))
+                    .andExpect(status().isOk())
+                    .andExpect(header().doesNotExist("X-Total-Count"))
+                    .andReturn();
+            ids.addAll(JsonPath.read(result.getResponse().getContentAsString(), "$.[*].id"));
+            String link = result.getResponse().getHeader("Link");
+            Matcher matcher = next.matcher(link == null ? "" : link);
+            after = matcher.find() ? matcher.group(1) : null;
+        }
+        assertThat(ids).hasSize(databaseSize).isSorted();
+    }
+
+    @Test
+    @Transactional
+    public void getAllStocksWithInvalidCursor() throws Exception {
+        restStockMockMvc.perform(get("/api/stocks?after=invalid"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Transactional
+    public void getAllStocksWithFields() throws Exception {
+        // Initialize the database
+        stock = stockRepository.saveAndFlush(stock);
+
+        restStockMockMvc.perform(get("/api/stocks?fields=name&namePrefix=" + DEFAULT_NAME))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.[0].id").value(stock.getId().intValue()))
+                .andExpect(jsonPath("$.[0].name").value(DEFAULT_NAME))
+                .andExpect(jsonPath("$.[0].currentPrice").isEmpty())
+                .andExpect(jsonPath("$.[0].createdDate").isEmpty());
+        restStockMockMvc.perform(get("/api/stocks?fields=name,password"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Transactional
+    public void getAllStocksProjectedLikeMapped() {
+        // Initialize the database
+        stock = stockRepository.saveAndFlush(stock);
+        em.clear();
+
+        StockCriteria criteria = new StockCriteria();
+        criteria.setNamePrefix(DEFAULT_NAME);
+        List<StockDTO> projected = stockService.findAll(criteria, PageRequest.of(0, 10), null).getContent();
+        assertThat(projected).hasSize(1);
+        assertThat(projected.get(0)).isEqualToComparingFieldByField(stockMapper.toDto(stockRepository.findById(stock.getId()).get()));
+    }
+
+    @Test
+    @Transactional
+    public void getAllStocksFiltered() throws Exception {
+        // Initialize the database
+        stockRepository.saveAndFlush(new Stock().name("f1a").currentPrice(new BigDecimal("1")));
+        Stock expected = stockRepository.saveAndFlush(new Stock().name("f1b").currentPrice(new BigDecimal("50")));
+        stockRepository.saveAndFlush(new Stock().name("g1b").currentPrice(new BigDecimal("50")));
+
+        restStockMockMvc.perform(get("/api/stocks?namePrefix=f1&minPrice=10&maxPrice=50"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Total-Count", "1"))
+                .andExpect(jsonPath("$.[*].id").value(hasItem(expected.getId().intValue())));
+        restStockMockMvc.perform(get("/api/stocks?nameContains=1B&createdSince=" + Instant.now().minusSeconds(60)))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Total-Count", "2"));
+        restStockMockMvc.perform(get("/api/stocks?namePrefix=f1&modifiedUntil=" + Instant.now().minusSeconds(60)))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Total-Count", "0"));
+        restStockMockMvc.perform(get("/api/stocks?namePrefix=f_"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Total-Count", "0"));
+    }
+
+    @Test
+    @Transactional
+    public void getAllStocksFilteredWithCursor() throws Exception {
+        // Initialize the database
+        for (int i = 0; i < 5; i++) {
+            stockRepository.saveAndFlush(new Stock().name("k" + i).currentPrice(new BigDecimal(i)));
+        }
+
+        // Walk the filtered stocks one at a time by name
+        Pattern next = Pattern.compile("after=([^&>]+)[^>]*>; rel=\"next\"");
+        List<String> names = new ArrayList<>();
+        String after = "";
+        while (after != null) {
+            MvcResult result = restStockMockMvc.perform(get("/api/stocks?size=1&sort=name&namePrefix=k&minPrice=2&after=" + after))
+                    .andExpect(status().isOk())
+                    .andReturn();
+            names.addAll(JsonPath.read(result.getResponse().getContentAsString(), "$.[*].name"));
+            String link = result.getResponse().getHeader("Link");
+            Matcher matcher = next.matcher(link == null ? "" : link);
+            after = matcher.find() ? matcher.group(1) : null;
+        }
+        assertThat(names).containsExactly("k2", "k3", "k4");
+    }
+
+    @Test
+    @Transactional
+    public void filteredStocksSeekOnIndexes() {
+        assertThat(explain("current_price BETWEEN 10 AND 20")).contains("STOCK_CURRENT_PRICE_IDX");
+        assertThat(explain("created_date >= TIMESTAMP '2021-01-01 00:00:00'")).contains("STOCK_CREATED_DATE_IDX");
+        assertThat(explain("modified_date <= TIMESTAMP '2021-01-01 00:00:00'")).contains("STOCK_MODIFIED_DATE_IDX");
+        assertThat(explain("name LIKE 'ab%' ESCAPE '\\'")).doesNotContain("tableScan");
+        assertThat(explain("lower(name) LIKE '%ab%' ESCAPE '\\'")).contains("tableScan");
+    }
+
+    private String explain(String where) {
+        return String.valueOf(em.createNativeQuery("EXPLAIN SELECT id FROM stock WHERE " + where).getSingleResult());
+    }
+
+    @Test
+    public void exportStocks() throws Exception {
+        // The export streams on another thread, so only committed stocks (data.sql) are visible
+        MvcResult result = restStockMockMvc.perform(get("/api/stocks/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String body = restStockMockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andExpect(header().string("Vary", containsString("Accept-Encoding")))
+                .andExpect(header().doesNotExist("Content-Encoding"))
+                .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8);
+
+        // one object per line, no separator between the values other than the newline
+        assertThat(body).endsWith("}\n").contains("\"name\":\"p1\"");
+        for (String line : body.substring(0, body.length() - 1).split("\n", -1)) {
+            assertThat(line).startsWith("{\"id\":").endsWith("}");
+        }
+    }
+
+    @Test
+    public void exportStocksWithoutRefusedGzip() throws Exception {
+        MvcResult result = restStockMockMvc.perform(get("/api/stocks/export?format=csv").header("Accept-Encoding", "gzip;q=0, identity"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        restStockMockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("Content-Encoding"))
+                .andExpect(header().string("Vary", containsString("Accept-Encoding")))
+                .andExpect(content().string(startsWith("id,name,currentPrice,createdDate,modifiedDate\n")));
+    }
+
+    @Test
+    public void exportStocksAsGzippedCsv() throws Exception {
+        MvcResult result = restStockMockMvc.perform(get("/api/stocks/export?format=csv").header("Accept-Encoding", "gzip"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        byte[] body = restStockMockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andExpect(header().string("Vary", containsString("Accept-Encoding")))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        String csv = new String(new GZIPInputStream(new ByteArrayInputStream(body)).readAllBytes(), StandardCharsets.UTF_8);
+        assertThat(csv).startsWith("id,name,currentPrice,createdDate,modifiedDate\n").contains(",p1,");
+    }
+
     @Test
     @Transactional
     public void getStock() throws Exception {
@@ -182,6 +568,301 @@ public class StockResourceITest {
                 .andExpect(jsonPath("$.currentPrice").value(DEFAULT_CURRENT_PRICE));
     }
 
+    @Test
+    @Transactional
+    public void getStockWithDateFormat() throws Exception {
+        // Initialize the database
+        stock = stockRepository.saveAndFlush(stock);
+
+        restStockMockMvc.perform(get("/api/stocks/{id}", stock.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.createdDate").value(StockMapper.DATE_FORMATTER.format(stock.getCreatedDate().toInstant())));
+        restStockMockMvc.perform(get("/api/stocks/{id}?dateFormat=iso", stock.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.createdDate").value(stock.getCreatedDate().toInstant().toString()));
+        restStockMockMvc.perform(get("/api/stocks?dateFormat=epoch&namePrefix=" + DEFAULT_NAME))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.[0].createdDate").value(stock.getCreatedDate().getTime()));
+    }
+
+    @Test
+    @Transactional
+    public void getStockIsCached() throws Exception {
+        // Initialize the database
+        stock = stockRepository.saveAndFlush(stock);
+        double hitsBefore = meterRegistry.get("cache.gets").tag("cache", "stock.byId").tag("result", "hit").functionCounter().count();
+
+        restStockMockMvc.perform(get("/api/stocks/{id}", stock.getId()))
+                .andExpect(status().isOk());
+        // Change the row behind the cache's back, the cached value is served
+        em.createNativeQuery("update stock set current_price = 0 where id = :id").setParameter("id", stock.getId()).executeUpdate();
+        restStockMockMvc.perform(get("/api/stocks/{id}", stock.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.currentPrice").value(DEFAULT_CURRENT_PRICE));
+
+        double hitsAfter = meterRegistry.get("cache.gets").tag("cache", "stock.byId").tag("result", "hit").functionCounter().count();
+        assertThat(hitsAfter).isEqualTo(hitsBefore + 1);
+        assertThat(stockService.findOneByName(DEFAULT_NAME)).hasValueSatisfying(stockDTO ->
+                assertThat(stockDTO.getId()).isEqualTo(stock.getId()));
+    }
+
+    @Test
+    public void stockCacheSkipsLoadsRacingWithEviction() {
+        StockDTO loaded = new StockDTO().name("cache-race").currentPrice(BigDecimal.ONE);
+        loaded.setId(-1L);
+        try {
+            // Evicted while loading, like a commit after the loader read the row
+            assertThat(stockCache.get(-1L, id -> {
+                stockCache.evict(id, null);
+                return Optional.of(loaded);
+            })).hasValue(loaded);
+            assertThat(stockCache.get(-1L, id -> Optional.empty())).isEmpty();
+
+            stockCache.get(-1L, id -> Optional.of(loaded));
+            // Callers get copies
+            stockCache.get(-1L, id -> Optional.empty()).get().setCurrentPrice(BigDecimal.TEN);
+            loaded.setCurrentPrice(BigDecimal.TEN);
+            assertThat(stockCache.get(-1L, id -> Optional.empty()).get().getCurrentPrice()).isEqualTo(BigDecimal.ONE);
+            assertThat(stockCache.getByName("cache-race", name -> Optional.empty()).get().getCurrentPrice()).isEqualTo(BigDecimal.ONE);
+        } finally {
+            stockCache.evict(-1L, "cache-race");
+        }
+    }
+
+    @Test
+    @Transactional
+    public void updateStockEvictsCache() throws Exception {
+        // Initialize the database
+        stock = stockRepository.saveAndFlush(stock);
+        restStockMockMvc.perform(get("/api/stocks/{id}", stock.getId()))
+                .andExpect(jsonPath("$.currentPrice").value(DEFAULT_CURRENT_PRICE));
+
+        restStockMockMvc.perform(put("/api/stocks/{id}", stock.getId()).param("currentPrice", UPDATED_CURRENT_PRICE.toString()))
+                .andExpect(status().isOk());
+
+        restStockMockMvc.perform(get("/api/stocks/{id}", stock.getId()))
+                .andExpect(jsonPath("$.currentPrice").value(UPDATED_CURRENT_PRICE.doubleValue()));
+    }
+
+    @Test
+    @Transactional
+    public void getStockNotModified() throws Exception {
+        // Initialize the database
+        stockRepository.saveAndFlush(stock);
+
+        MvcResult result = restStockMockMvc.perform(get("/api/stocks/{id}", stock.getId()))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"0\""))
+                .andExpect(header().exists("Last-Modified"))
+                .andReturn();
+
+        restStockMockMvc.perform(get("/api/stocks/{id}", stock.getId()).header("If-None-Match", "\"0\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        restStockMockMvc.perform(get("/api/stocks/{id}", stock.getId())
+                .header("If-Modified-Since", result.getResponse().getHeader("Last-Modified")))
+                .andExpect(status().isNotModified());
+        restStockMockMvc.perform(get("/api/stocks/{id}", stock.getId()).header("If-None-Match", "\"1\""))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void getAllStocksNotModified() throws Exception {
+        String etag = restStockMockMvc.perform(get("/api/stocks"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("Last-Modified"))
+                .andReturn().getResponse().getHeader("ETag");
+        assertThat(etag).isNotNull();
+
+        restStockMockMvc.perform(get("/api/stocks").header("If-None-Match", etag))
+                .andExpect(status().isNotModified());
+        // Only the ETag is validated
+        restStockMockMvc.perform(get("/api/stocks").header("If-Modified-Since", "Wed, 01 Jan 2999 00:00:00 GMT"))
+                .andExpect(status().isOk());
+
+        // Any committed change invalidates every page, also one which published no event (another instance)
+        stock = stockRepository.save(stock);
+        try {
+            restStockMockMvc.perform(get("/api/stocks").header("If-None-Match", etag))
+                    .andExpect(status().isOk());
+            etag = restStockMockMvc.perform(get("/api/stocks")).andReturn().getResponse().getHeader("ETag");
+            Thread.sleep(2);
+            stockService.save(stock.getId(), UPDATED_CURRENT_PRICE);
+            restStockMockMvc.perform(get("/api/stocks").header("If-None-Match", etag))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("ETag", not(etag)));
+        } finally {
+            stockRepository.deleteById(stock.getId());
+        }
+    }
+
+    @Test
+    public void getStockSnapshot() throws Exception {
+        String etag = restStockMockMvc.perform(get("/api/stocks/snapshot"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andReturn().getResponse().getHeader("ETag");
+        assertThat(etag).isNotNull();
+        restStockMockMvc.perform(get("/api/stocks/snapshot").header("If-None-Match", etag))
+                .andExpect(status().isNotModified());
+
+        StockDTO saved = stockService.save(stockMapper.toDto(stock));
+        try {
+            restStockMockMvc.perform(get("/api/stocks/snapshot").header("If-None-Match", etag))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("ETag", not(etag)));
+            assertThat(snapshotPrice(saved.getId())).isEqualTo("12.5");
+
+            stockService.updatePrices(List.of(new StockPriceDTO().id(saved.getId()).currentPrice(UPDATED_CURRENT_PRICE)));
+            assertThat(snapshotPrice(saved.getId())).isEqualTo("5.12");
+            // Built once per change
+            assertThat(stockSnapshot.current()).isSameAs(stockSnapshot.current());
+        } finally {
+            stockService.delete(saved.getId());
+        }
+        restStockMockMvc.perform(get("/api/stocks/snapshot"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.ids").value(not(hasItem(saved.getId().intValue()))));
+    }
+
+    @Test
+    public void reconcileStockSnapshot() throws Exception {
+        // Written around the service like by another instance, no change is published
+        Stock written = stockRepository.saveAndFlush(stock);
+        try {
+            assertThat(snapshotPrice(written.getId())).isNull();
+            stockSnapshot.reconcile();
+            assertThat(new BigDecimal(snapshotPrice(written.getId()))).isEqualByComparingTo(DEFAULT_CURRENT_PRICE);
+
+            long version = stockSnapshot.current().getVersion();
+            stockSnapshot.reconcile();
+            assertThat(stockSnapshot.current().getVersion()).isEqualTo(version);
+
+            written.setCurrentPrice(UPDATED_CURRENT_PRICE);
+            written = stockRepository.saveAndFlush(written);
+            stockSnapshot.reconcile();
+            assertThat(new BigDecimal(snapshotPrice(written.getId()))).isEqualByComparingTo(UPDATED_CURRENT_PRICE);
+        } finally {
+            stockRepository.deleteById(written.getId());
+        }
+        stockSnapshot.reconcile();
+        assertThat(snapshotPrice(written.getId())).isNull();
+    }
+
+    @Test
+    public void reconcileStockSnapshotKeepsChangesCommittedDuringTheLoad() throws Exception {
+        StockService loadingService = Mockito.mock(StockService.class);
+        StockSnapshot snapshot = new StockSnapshot(loadingService, transactionManager, new SimpleMeterRegistry());
+        StockDTO first = snapshotStock(1L, DEFAULT_CURRENT_PRICE);
+        StockDTO second = snapshotStock(2L, DEFAULT_CURRENT_PRICE);
+        Mockito.doAnswer(invocation -> {
+            Consumer<StockDTO> consumer = invocation.getArgument(0);
+            consumer.accept(first);
+            consumer.accept(second);
+            return null;
+        }).when(loadingService).exportAll(Mockito.any());
+        snapshot.reconcile();
+        assertThat(snapshot.size()).isEqualTo(2);
+
+        // Both commit while the load runs, the update was published well before it started
+        Mockito.doAnswer(invocation -> {
+            snapshot.onStockChanged(StockChangesEvent.of(new StockChangedEvent(StockChangedEvent.Type.UPDATED,
+                    1L, DEFAULT_NAME, snapshotStock(1L, UPDATED_CURRENT_PRICE), System.currentTimeMillis() - 60_000)));
+            snapshot.onStockChanged(StockChangesEvent.of(StockChangedEvent.deleted(2L, DEFAULT_NAME)));
+            Consumer<StockDTO> consumer = invocation.getArgument(0);
+            consumer.accept(first);
+            consumer.accept(second);
+            return null;
+        }).when(loadingService).exportAll(Mockito.any());
+        snapshot.reconcile();
+        JsonNode body = objectMapper.readTree(snapshot.current().getBody());
+        assertThat(body.get("ids")).extracting(JsonNode::asLong).containsExactly(1L);
+        assertThat(body.get("currentPrices").get(0).decimalValue()).isEqualByComparingTo(UPDATED_CURRENT_PRICE);
+    }
+
+    private static StockDTO snapshotStock(Long id, BigDecimal currentPrice) {
+        StockDTO stock = new StockDTO().name(DEFAULT_NAME).currentPrice(currentPrice);
+        stock.setId(id);
+        return stock;
+    }
+
+    /**
+     * price of a stock in the snapshot as written, null when the snapshot has no such stock
+     */
+    private String snapshotPrice(Long id) throws Exception {
+        JsonNode snapshot = objectMapper.readTree(restStockMockMvc.perform(get("/api/stocks/snapshot"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray());
+        for (int i = 0; i < snapshot.get("ids").size(); i++) {
+            if (snapshot.get("ids").get(i).asLong() == id) {
+                assertThat(snapshot.get("names").get(i).asText()).isEqualTo(DEFAULT_NAME);
+                return snapshot.get("currentPrices").get(i).decimalValue().toPlainString();
+            }
+        }
+        return null;
+    }
+
+    @Test
+    @Transactional
+    public void getStockByName() throws Exception {
+        // Initialize the database
+        stockRepository.saveAndFlush(stock);
+
+        restStockMockMvc.perform(get("/api/stocks/by-name/{name}", DEFAULT_NAME))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(stock.getId().intValue()))
+                .andExpect(header().string("ETag", "\"" + stock.getId() + "-0\""));
+        restStockMockMvc.perform(get("/api/stocks/by-name/{name}", UPDATED_NAME))
+                .andExpect(status().isNotFound());
+
+        // A stock created again under the name is another one, at version 0 as well
+        String etag = "\"" + stock.getId() + "-0\"";
+        stockRepository.delete(stock);
+        stockRepository.flush();
+        Stock recreated = stockRepository.saveAndFlush(createEntity());
+        stockCache.evict(stock.getId(), DEFAULT_NAME);
+        restStockMockMvc.perform(get("/api/stocks/by-name/{name}", DEFAULT_NAME).header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"" + recreated.getId() + "-0\""));
+    }
+
+    @Test
+    public void searchStocks() throws Exception {
+        // The index follows committed creates and deletes
+        StockDTO created = stockService.save(new StockDTO().name("SEARCH-1").currentPrice(DEFAULT_CURRENT_PRICE));
+        try {
+            restStockMockMvc.perform(get("/api/stocks/search").param("prefix", "search-"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.length()").value(1))
+                    .andExpect(jsonPath("$.[0].id").value(created.getId().intValue()))
+                    .andExpect(jsonPath("$.[0].name").value("SEARCH-1"));
+            restStockMockMvc.perform(get("/api/stocks/search").param("prefix", "p").param("size", "1"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.length()").value(1))
+                    .andExpect(jsonPath("$.[0].name").value("p1"));
+        } finally {
+            stockService.delete(created.getId());
+        }
+        restStockMockMvc.perform(get("/api/stocks/search").param("prefix", "search-"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(0));
+    }
+
+    @Test
+    public void reconcileStockNameIndex() throws Exception {
+        // Another instance created and deleted stocks, no event was published here
+        Stock created = stockRepository.save(new Stock().name("RECONCILE-1").currentPrice(DEFAULT_CURRENT_PRICE));
+        try {
+            assertThat(stockNameIndex.search("reconcile-", 10)).isEmpty();
+            stockNameIndex.reconcile();
+            assertThat(stockNameIndex.search("reconcile-", 10)).extracting(StockNameDTO::getId).containsExactly(created.getId());
+        } finally {
+            stockRepository.deleteById(created.getId());
+        }
+        stockNameIndex.reconcile();
+        assertThat(stockNameIndex.search("reconcile-", 10)).isEmpty();
+    }
+
     @Test
     @Transactional
     public void getNonExistingStock() throws Exception {
@@ -217,6 +898,445 @@ public class StockResourceITest {
         assertThat(testStock.getCurrentPrice()).isEqualTo(UPDATED_CURRENT_PRICE);
     }
 
+    @Test
+    @Transactional
+    public void updateStockWithIfMatch() throws Exception {
+        // Initialize the database
+        stock = stockRepository.saveAndFlush(stock);
+
+        restStockMockMvc.perform(get("/api/stocks/{id}", stock.getId()))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"0\""));
+
+        restStockMockMvc.perform(put("/api/stocks/{id}", stock.getId()).param("currentPrice", UPDATED_CURRENT_PRICE.toString())
+                .header("If-Match", "\"0\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"1\""))
+                .andExpect(jsonPath("$.version").value(1));
+
+        // A writer holding the old version loses
+        restStockMockMvc.perform(put("/api/stocks/{id}", stock.getId()).param("currentPrice", DEFAULT_CURRENT_PRICE.toString())
+                .header("If-Match", "\"0\""))
+                .andExpect(status().isPreconditionFailed());
+        restStockMockMvc.perform(put("/api/stocks/{id}", stock.getId()).param("currentPrice", DEFAULT_CURRENT_PRICE.toString())
+                .header("If-Match", "W/\"1\""))
+                .andExpect(status().isPreconditionFailed());
+
+        Stock testStock = stockRepository.findById(stock.getId()).get();
+        assertThat(testStock.getCurrentPrice()).isEqualTo(UPDATED_CURRENT_PRICE);
+        assertThat(testStock.getVersion()).isEqualTo(1L);
+
+        // Any ETag of a list matches
+        restStockMockMvc.perform(put("/api/stocks/{id}", stock.getId()).param("currentPrice", DEFAULT_CURRENT_PRICE.toString())
+                .header("If-Match", "\"0\", W/\"1\", \"1\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"2\""));
+        restStockMockMvc.perform(put("/api/stocks/{id}", stock.getId()).param("currentPrice", DEFAULT_CURRENT_PRICE.toString())
+                .header("If-Match", "\"0\", \"1\""))
+                .andExpect(status().isPreconditionFailed());
+        restStockMockMvc.perform(put("/api/stocks/{id}", stock.getId()).param("currentPrice", DEFAULT_CURRENT_PRICE.toString())
+                .header("If-Match", "\"2\", 3"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Transactional
+    public void createStockIgnoresVersion() throws Exception {
+        StockDTO stockDTO = stockMapper.toDto(stock);
+        stockDTO.setVersion(5L);
+
+        restStockMockMvc.perform(post("/api/stocks")
+                .contentType(TestUtil.APPLICATION_JSON_UTF8)
+                .content(TestUtil.convertObjectToJsonBytes(stockDTO)))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.version").value(0));
+    }
+
+    @Test
+    @Transactional
+    public void updateStockIsAudited() throws Exception {
+        // Initialize the database
+        stock = stockRepository.saveAndFlush(stock);
+        Number auditSizeBeforeUpdate = (Number) em.createNativeQuery("select count(*) from stock_aud where id = :id")
+                .setParameter("id", stock.getId()).getSingleResult();
+
+        restStockMockMvc.perform(put("/api/stocks/{id}", stock.getId()).param("currentPrice", UPDATED_CURRENT_PRICE.toString()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name").value(DEFAULT_NAME))
+                .andExpect(jsonPath("$.currentPrice").value(UPDATED_CURRENT_PRICE.doubleValue()));
+
+        Number auditSizeAfterUpdate = (Number) em.createNativeQuery("select count(*) from stock_aud where id = :id")
+                .setParameter("id", stock.getId()).getSingleResult();
+        assertThat(auditSizeAfterUpdate.longValue()).isEqualTo(auditSizeBeforeUpdate.longValue() + 1);
+        Stock testStock = stockRepository.findById(stock.getId()).get();
+        assertThat(testStock.getModifiedDate().getTime()).isGreaterThanOrEqualTo(stock.getModifiedDate().getTime());
+    }
+
+    @Test
+    @Transactional
+    public void updateStockWithUnknownId() throws Exception {
+        restStockMockMvc.perform(put("/api/stocks/{id}", Long.MAX_VALUE).param("currentPrice", UPDATED_CURRENT_PRICE.toString()))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Transactional
+    public void updateStockPrices() throws Exception {
+        // Initialize the database
+        stock = stockRepository.saveAndFlush(stock);
+        Number auditSizeBeforeUpdate = (Number) em.createNativeQuery("select count(*) from stock_aud").getSingleResult();
+
+        List<StockPriceDTO> prices = Arrays.asList(
+                new StockPriceDTO().id(stock.getId()).currentPrice(UPDATED_CURRENT_PRICE),
+                new StockPriceDTO().id(Long.MAX_VALUE).currentPrice(UPDATED_CURRENT_PRICE));
+
+        restStockMockMvc.perform(put("/api/stocks/prices")
+                .contentType(TestUtil.APPLICATION_JSON_UTF8)
+                .content(TestUtil.convertObjectToJsonBytes(prices)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.updated").value(hasItem(stock.getId().intValue())))
+                .andExpect(jsonPath("$.failed").value(hasItem(Long.MAX_VALUE)));
+
+        // Validate the Stock and its audit trail in the database
+        em.clear();
+        Stock testStock = stockRepository.findById(stock.getId()).get();
+        assertThat(testStock.getCurrentPrice()).isEqualTo(UPDATED_CURRENT_PRICE);
+        Number auditSizeAfterUpdate = (Number) em.createNativeQuery("select count(*) from stock_aud").getSingleResult();
+        assertThat(auditSizeAfterUpdate.longValue()).isEqualTo(auditSizeBeforeUpdate.longValue() + 1);
+    }
+
+    @Test
+    @Transactional
+    public void updateStockPricesWithoutPrice() throws Exception {
+        List<StockPriceDTO> prices = Arrays.asList(new StockPriceDTO().id(1L));
+
+        restStockMockMvc.perform(put("/api/stocks/prices")
+                .contentType(TestUtil.APPLICATION_JSON_UTF8)
+                .content(TestUtil.convertObjectToJsonBytes(prices)))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void offerStockTicks() throws Exception {
+        // The flusher writes on its own thread, so the stock must be committed
+        stock = stockRepository.save(new Stock().name("tick").currentPrice(DEFAULT_CURRENT_PRICE));
+        try {
+            List<StockPriceDTO> ticks = Arrays.asList(
+                    new StockPriceDTO().id(stock.getId()).currentPrice(DEFAULT_CURRENT_PRICE.add(BigDecimal.ONE)),
+                    new StockPriceDTO().id(stock.getId()).currentPrice(UPDATED_CURRENT_PRICE));
+            restStockMockMvc.perform(post("/api/stocks/ticks")
+                    .contentType(TestUtil.APPLICATION_JSON_UTF8)
+                    .content(TestUtil.convertObjectToJsonBytes(ticks)))
+                    .andExpect(status().isAccepted())
+                    .andExpect(jsonPath("$.accepted").value(2));
+
+            // Only the latest price is written
+            long deadline = System.currentTimeMillis() + 5000;
+            while (stockRepository.findById(stock.getId()).get().getCurrentPrice().compareTo(UPDATED_CURRENT_PRICE) != 0
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertThat(stockRepository.findById(stock.getId()).get().getCurrentPrice()).isEqualTo(UPDATED_CURRENT_PRICE);
+        } finally {
+            stockRepository.deleteById(stock.getId());
+        }
+    }
+
+    @Test
+    public void retryFailedStockTicks() {
+        StockService failingService = Mockito.mock(StockService.class);
+        Mockito.when(failingService.updatePrices(Mockito.anyList()))
+                .thenThrow(new IllegalStateException("down"))
+                .thenReturn(new StockPriceUpdateResultDTO());
+        StockTickBuffer buffer = new StockTickBuffer(failingService, new SimpleMeterRegistry(), 10, 10, 2);
+
+        // The failed tick is put back for the next flush
+        buffer.offer(1L, DEFAULT_CURRENT_PRICE);
+        buffer.flush();
+        assertThat(buffer.getDepth()).isEqualTo(1);
+        buffer.flush();
+        assertThat(buffer.getDepth()).isZero();
+        Mockito.verify(failingService, Mockito.times(2)).updatePrices(Mockito.anyList());
+
+        // A tick is dropped after the maximum of failed writes
+        Mockito.reset(failingService);
+        Mockito.when(failingService.updatePrices(Mockito.anyList())).thenThrow(new IllegalStateException("down"));
+        buffer.offer(2L, DEFAULT_CURRENT_PRICE);
+        buffer.flush();
+        buffer.flush();
+        assertThat(buffer.getDepth()).isZero();
+        buffer.flush();
+        Mockito.verify(failingService, Mockito.times(2)).updatePrices(Mockito.anyList());
+    }
+
+    @Test
+    public void streamStockPrices() throws Exception {
+        // Prices are pushed after commit, so the update must not run in the test transaction
+        stock = stockRepository.save(new Stock().name("stream").currentPrice(DEFAULT_CURRENT_PRICE));
+        try {
+            MvcResult result = restStockMockMvc.perform(get("/api/stocks/stream").param("ids", stock.getId().toString()))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            stockService.save(stock.getId(), UPDATED_CURRENT_PRICE);
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!result.getResponse().getContentAsString().contains("event:price") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertThat(result.getResponse().getContentAsString())
+                    .contains("event:price")
+                    .contains("id:" + stock.getId())
+                    .contains("data:{\"id\":" + stock.getId() + ",\"currentPrice\":" + UPDATED_CURRENT_PRICE + "}");
+
+            // Bulk updates do not load the rows, their events have the same shape
+            stockService.updatePrices(List.of(new StockPriceDTO().id(stock.getId()).currentPrice(DEFAULT_CURRENT_PRICE)));
+            String bulk = "data:{\"id\":" + stock.getId() + ",\"currentPrice\":" + DEFAULT_CURRENT_PRICE + "}";
+            deadline = System.currentTimeMillis() + 5000;
+            while (!result.getResponse().getContentAsString().contains(bulk) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertThat(result.getResponse().getContentAsString()).contains(bulk).doesNotContain("\"name\"");
+        } finally {
+            stockRepository.deleteById(stock.getId());
+        }
+    }
+
+    @Test
+    public void getStockHistory() throws Exception {
+        // Envers writes audit rows when a transaction commits, so every change gets its own transaction
+        StockDTO created = stockService.save(new StockDTO().name("history").currentPrice(DEFAULT_CURRENT_PRICE));
+        try {
+            stockService.save(created.getId(), UPDATED_CURRENT_PRICE);
+            stockService.save(created.getId(), DEFAULT_CURRENT_PRICE.add(BigDecimal.TEN));
+
+            MvcResult first = restStockMockMvc.perform(get("/api/stocks/{id}/history", created.getId()).param("size", "2"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.length()").value(2))
+                    .andExpect(jsonPath("$.[0].type").value("CREATED"))
+                    .andExpect(jsonPath("$.[0].currentPrice").value(DEFAULT_CURRENT_PRICE.doubleValue()))
+                    .andExpect(jsonPath("$.[1].type").value("UPDATED"))
+                    .andExpect(jsonPath("$.[1].currentPrice").value(UPDATED_CURRENT_PRICE.doubleValue()))
+                    .andExpect(header().string("Link", containsString("rel=\"next\"")))
+                    .andReturn();
+            Integer lastRev = JsonPath.read(first.getResponse().getContentAsString(), "$.[1].rev");
+
+            restStockMockMvc.perform(get("/api/stocks/{id}/history", created.getId())
+                    .param("size", "2").param("after", lastRev.toString()))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.length()").value(1))
+                    .andExpect(jsonPath("$.[0].currentPrice").value(DEFAULT_CURRENT_PRICE.add(BigDecimal.TEN).doubleValue()))
+                    .andExpect(header().doesNotExist("Link"));
+
+            // Nothing was audited before the stock was created
+            restStockMockMvc.perform(get("/api/stocks/{id}/history", created.getId()).param("to", "2000-01-01T00:00:00Z"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.length()").value(0));
+        } finally {
+            stockRepository.deleteById(created.getId());
+        }
+    }
+
+    @Test
+    public void getStockCandles() throws Exception {
+        StockDTO created = stockService.save(new StockDTO().name("candles").currentPrice(DEFAULT_CURRENT_PRICE));
+        try {
+            stockService.save(created.getId(), UPDATED_CURRENT_PRICE);
+            stockService.save(created.getId(), DEFAULT_CURRENT_PRICE.add(BigDecimal.TEN));
+            stockService.save(created.getId(), DEFAULT_CURRENT_PRICE.add(BigDecimal.ONE));
+
+            restStockMockMvc.perform(get("/api/stocks/{id}/candles", created.getId()).param("interval", "1d"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.[0].open").value(DEFAULT_CURRENT_PRICE.doubleValue()))
+                    .andExpect(jsonPath("$.[-1:].close").value(DEFAULT_CURRENT_PRICE.add(BigDecimal.ONE).doubleValue()))
+                    .andExpect(jsonPath("$.[*].high").value(hasItem(DEFAULT_CURRENT_PRICE.add(BigDecimal.TEN).doubleValue())))
+                    .andExpect(jsonPath("$.[*].low").value(hasItem(UPDATED_CURRENT_PRICE.doubleValue())));
+        } finally {
+            stockRepository.deleteById(created.getId());
+        }
+    }
+
+    @Test
+    public void getStockCandlesMergedOutOfOrder() throws Exception {
+        // Changes of the same minute whose listeners run in reverse order
+        long minute = 1_600_000_020_000L - 1_600_000_020_000L % 60_000;
+        Long id = Long.MAX_VALUE - 1;
+        stockCandleRollup.onStockChanged(priceChange(id, new BigDecimal("3"), minute + 30_000));
+        stockCandleRollup.onStockChanged(priceChange(id, new BigDecimal("1"), minute + 10_000));
+        stockCandleRollup.onStockChanged(priceChange(id, new BigDecimal("5"), minute + 20_000));
+
+        restStockMockMvc.perform(get("/api/stocks/{id}/candles", id).param("interval", "1m")
+                .param("from", Instant.ofEpochMilli(minute).toString())
+                .param("to", Instant.ofEpochMilli(minute + 60_000).toString()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$.[0].open").value(1))
+                .andExpect(jsonPath("$.[0].high").value(5))
+                .andExpect(jsonPath("$.[0].low").value(1))
+                .andExpect(jsonPath("$.[0].close").value(3))
+                .andExpect(jsonPath("$.[0].count").value(3));
+    }
+
+    @Test
+    public void failedCandleMergesAreQueued() throws Exception {
+        // The price does not fit the column, so the merge fails
+        long minute = 1_600_000_020_000L - 1_600_000_020_000L % 60_000;
+        int failed = stockCandleRollup.getFailedCount();
+        int buckets = CandleInterval.values().length;
+        stockCandleRollup.onStockChanged(priceChange(Long.MAX_VALUE - 2, new BigDecimal("1e30"), minute));
+        assertThat(stockCandleRollup.getFailedCount()).isEqualTo(failed + buckets);
+
+        // Failures of the same buckets are merged into the queued candles
+        stockCandleRollup.onStockChanged(priceChange(Long.MAX_VALUE - 2, new BigDecimal("2e30"), minute + 1));
+        stockCandleRollup.retryFailed();
+        assertThat(stockCandleRollup.getFailedCount()).isEqualTo(failed + buckets);
+
+        // A rebuild of its buckets drops them, the audit trail covers them
+        stockCandleRollup.rebuild(minute, minute + 2 * 86_400_000L);
+        assertThat(stockCandleRollup.getFailedCount()).isEqualTo(failed);
+    }
+
+    @Test
+    public void failedCandleMergesAreBounded() throws Exception {
+        long minute = 1_600_000_020_000L - 1_600_000_020_000L % 60_000;
+        int buckets = CandleInterval.values().length;
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        StockCandleRollup rollup = new StockCandleRollup(stockCandleRepository, stockHistoryRepository, transactionManager,
+                meterRegistry, 500, Duration.ofMinutes(5), Duration.ofDays(2), buckets);
+
+        rollup.onStockChanged(priceChange(Long.MAX_VALUE - 3, new BigDecimal("1e30"), minute));
+        rollup.onStockChanged(priceChange(Long.MAX_VALUE - 4, new BigDecimal("1e30"), minute));
+
+        // The buckets of the second stock do not fit
+        assertThat(rollup.getFailedCount()).isEqualTo(buckets);
+        assertThat(meterRegistry.counter("store.candles.dropped").count()).isEqualTo(buckets);
+    }
+
+    @Test
+    public void rebuildStockCandles() throws Exception {
+        StockDTO created = stockService.save(new StockDTO().name("rebuild").currentPrice(DEFAULT_CURRENT_PRICE));
+        try {
+            stockService.save(created.getId(), UPDATED_CURRENT_PRICE);
+            // A lost live merge
+            stockCandleRepository.delete(created.getId(), CandleInterval.ONE_HOUR.getCode(), 0, Long.MAX_VALUE);
+
+            // Every bucket up to now is closed, the live merged buckets are replaced instead of merged into
+            long now = System.currentTimeMillis();
+            assertThat(stockCandleRollup.rebuild(now - 86_400_000L, now + 2 * 86_400_000L)).isGreaterThanOrEqualTo(2);
+
+            for (CandleInterval interval : List.of(CandleInterval.ONE_HOUR, CandleInterval.ONE_DAY)) {
+                restStockMockMvc.perform(get("/api/stocks/{id}/candles", created.getId()).param("interval", interval.getCode()))
+                        .andExpect(status().isOk())
+                        .andExpect(jsonPath("$.[0].open").value(DEFAULT_CURRENT_PRICE.doubleValue()))
+                        .andExpect(jsonPath("$.[-1:].close").value(UPDATED_CURRENT_PRICE.doubleValue()))
+                        .andExpect(jsonPath("$.[*].count").value(hasItem(2)));
+            }
+        } finally {
+            stockRepository.deleteById(created.getId());
+        }
+    }
+
+    private static StockChangesEvent priceChange(Long id, BigDecimal currentPrice, long timestamp) {
+        StockDTO stockDTO = new StockDTO().currentPrice(currentPrice);
+        stockDTO.setId(id);
+        return StockChangesEvent.of(new StockChangedEvent(StockChangedEvent.Type.UPDATED, id, null, stockDTO, timestamp));
+    }
+
+    @Test
+    public void getStockCandlesWithInvalidInterval() throws Exception {
+        restStockMockMvc.perform(get("/api/stocks/{id}/candles", 1L).param("interval", "5m"))
+                .andExpect(status().isBadRequest());
+        restStockMockMvc.perform(get("/api/stocks/{id}/candles", 1L).param("interval", "1m")
+                .param("from", "2000-01-01T00:00:00Z").param("to", "2001-01-01T00:00:00Z"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getStockChanges() throws Exception {
+        String since = restStockMockMvc.perform(get("/api/stocks/changes"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(StockResource.CHANGES_CURSOR_HEADER);
+        assertThat(since).isNotNull();
+
+        Stock updated = stockRepository.save(new Stock().name("c1").currentPrice(DEFAULT_CURRENT_PRICE));
+        Stock deleted = stockRepository.save(new Stock().name("c2").currentPrice(DEFAULT_CURRENT_PRICE));
+        try {
+            stockService.save(updated.getId(), UPDATED_CURRENT_PRICE);
+            stockService.delete(deleted.getId());
+
+            // The changes stream on another thread, only the latest revision of each stock is returned
+            MvcResult result = restStockMockMvc.perform(get("/api/stocks/changes?since=" + since))
+                    .andExpect(request().asyncStarted())
+                    .andExpect(header().exists(StockResource.CHANGES_CURSOR_HEADER))
+                    .andReturn();
+            String body = restStockMockMvc.perform(asyncDispatch(result))
+                    .andExpect(status().isOk())
+                    .andExpect(content().contentType("application/x-ndjson"))
+                    .andReturn().getResponse().getContentAsString();
+            List<StockChangeDTO> changes = new ArrayList<>();
+            for (String line : body.split("\n")) {
+                StockChangeDTO change = objectMapper.readValue(line, StockChangeDTO.class);
+                if (change.getId().equals(updated.getId()) || change.getId().equals(deleted.getId())) {
+                    changes.add(change);
+                }
+            }
+            assertThat(changes).extracting(StockChangeDTO::getId).containsExactly(updated.getId(), deleted.getId());
+            assertThat(changes.get(0).getType()).isEqualTo(StockChangedEvent.Type.UPDATED);
+            assertThat(changes.get(0).getName()).isEqualTo("c1");
+            assertThat(changes.get(0).getCurrentPrice()).isEqualByComparingTo(UPDATED_CURRENT_PRICE);
+            assertThat(changes.get(1).getType()).isEqualTo(StockChangedEvent.Type.DELETED);
+            assertThat(changes.get(1).getName()).isNull();
+        } finally {
+            stockRepository.deleteById(updated.getId());
+        }
+    }
+
+    @Test
+    public void recordRequestMetrics() throws Exception {
+        StockDTO stockDTO = stockMapper.toDto(createEntity());
+        String location = restStockMockMvc.perform(post("/api/stocks")
+                .contentType(TestUtil.APPLICATION_JSON_UTF8)
+                .content(TestUtil.convertObjectToJsonBytes(stockDTO)))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getHeader("Location");
+        Long id = Long.valueOf(location.substring(location.lastIndexOf('/') + 1));
+        try {
+            restStockMockMvc.perform(get("/api/stocks/{id}", id))
+                    .andExpect(status().isOk());
+        } finally {
+            stockRepository.deleteById(id);
+        }
+
+        // The create inserts the stock and its envers audit rows, time is split into jdbc, audit, mapper and serialization
+        assertThat(meterRegistry.get("store.request.statements").tag("method", "POST").tag("uri", "/api/stocks").summary().totalAmount()).isGreaterThan(0);
+        assertThat(meterRegistry.get("store.request.jdbc").tag("method", "POST").tag("uri", "/api/stocks").timer().count()).isGreaterThan(0);
+        assertThat(meterRegistry.get("store.request.audit").tag("method", "POST").tag("uri", "/api/stocks").timer().count()).isGreaterThan(0);
+        assertThat(meterRegistry.get("store.request.statements").tag("method", "GET").tag("uri", "/api/stocks/{id}").summary().count()).isGreaterThan(0);
+        assertThat(meterRegistry.get("store.service").tag("class", "StockService").tag("method", "save").timer().count()).isGreaterThan(0);
+        assertThat(meterRegistry.get("store.mapper").tag("class", "StockMapperImpl").tag("method", "toDto").timer().count()).isGreaterThan(0);
+        assertThat(meterRegistry.get("store.http.serialization").tag("uri", "/api/stocks/{id}").timer().count()).isGreaterThan(0);
+        assertThat(meterRegistry.get("hibernate.statements").functionCounter().count()).isGreaterThan(0);
+        assertThat(meterRegistry.get("hikaricp.connections.acquire").timer().count()).isGreaterThan(0);
+        assertThat(prometheusMeterRegistry.scrape())
+                .contains("store_request_jdbc_seconds_bucket")
+                .contains("hikaricp_connections_acquire_seconds_bucket");
+
+        // A list revalidation only runs the jdbc template query of the change tracker, it counts as well
+        String etag = restStockMockMvc.perform(get("/api/stocks"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        double statementsBefore = meterRegistry.get("store.request.statements").tag("method", "GET").tag("uri", "/api/stocks").summary().totalAmount();
+        restStockMockMvc.perform(get("/api/stocks").header("If-None-Match", etag))
+                .andExpect(status().isNotModified());
+        assertThat(meterRegistry.get("store.request.statements").tag("method", "GET").tag("uri", "/api/stocks").summary().totalAmount()).isGreaterThan(statementsBefore);
+    }
+
+    @Test
+    @Transactional
+    public void stockChangesSeekOnRevision() {
+        String plan = String.valueOf(em.createNativeQuery("EXPLAIN SELECT id FROM stock_aud WHERE rev > 10").getSingleResult());
+        assertThat(plan).doesNotContain("tableScan");
+    }
+
     @Test
     @Transactional
     public void updateNonExistingStock() throws Exception {